@@ -0,0 +1,182 @@
+package template;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import logist.LogistSettings;
+import logist.agent.Agent;
+import logist.behavior.AuctionBehavior;
+import logist.config.Parsers;
+import logist.plan.Plan;
+import logist.simulation.Vehicle;
+import logist.task.Task;
+import logist.task.TaskDistribution;
+import logist.task.TaskSet;
+import logist.topology.Topology;
+
+/**
+ * An auction agent that bids its marginal cost.
+ *
+ * The agent keeps the routes of its fleet alive during the whole auction, in
+ * an {@link IncrementalPlanner}. The marginal cost of a task auctioned is the
+ * cost of its cheapest insertion in the current routes, which are left as they
+ * are. Only a task that is won is added to the routes and repaired around, so
+ * that plan() only has to run a final improvement pass.
+ *
+ */
+public class AuctionAgent implements AuctionBehavior {
+
+    enum Strategy { MARGINAL, MODEL }
+
+    public static final double DEFAULT_MARGIN = 0.1;
+    public static final double DEFAULT_SYNERGY_WEIGHT = 0.5;
+
+    /** Fraction of the plan timeout spent improving the final plan */
+    private static final double PLAN_SHARE = 0.5;
+
+    private Topology topology;
+    private TaskDistribution distribution;
+    private Agent agent;
+    private long timeout_setup;
+    private long timeout_plan;
+
+    /** Relative profit asked on top of the marginal cost */
+    private double margin;
+
+    /** How marginal costs are turned into bids */
+    private Strategy strategy;
+    private BidEngine engine;
+
+    /** The routes of the fleet, with all the tasks won so far */
+    private List<VehicleRoute> routes = new ArrayList<VehicleRoute>();
+    private IncrementalPlanner planner;
+
+    @Override
+    public void setup(Topology topology, TaskDistribution distribution, Agent agent) {
+
+        // this code is used to get the timeouts
+        LogistSettings ls = null;
+        try {
+            ls = Parsers.parseSettings("config/settings_default.xml");
+        }
+        catch (Exception exc) {
+            System.out.println("There was a problem loading the configuration file.");
+        }
+
+        timeout_setup = ls.get(LogistSettings.TimeoutKey.SETUP);
+        timeout_plan = ls.get(LogistSettings.TimeoutKey.PLAN);
+
+        this.topology = topology;
+        this.distribution = distribution;
+        this.agent = agent;
+
+        margin = agent.readProperty("margin", Double.class, DEFAULT_MARGIN);
+
+        // Throws IllegalArgumentException if strategy is unknown
+        String strategyName = agent.readProperty("strategy", String.class, "MARGINAL");
+        strategy = Strategy.valueOf(strategyName.toUpperCase());
+
+        int costPerKm = Integer.MAX_VALUE;
+
+        for (Vehicle vehicle : agent.vehicles()) {
+            routes.add(new VehicleRoute(vehicle, vehicle.homeCity()));
+            costPerKm = Math.min(costPerKm, vehicle.costPerKm());
+        }
+
+        int repairMoves = agent.readProperty("repair-moves", Integer.class, IncrementalPlanner.DEFAULT_REPAIR_MOVES);
+        planner = new IncrementalPlanner(routes, repairMoves);
+
+        if (strategy == Strategy.MODEL) {
+            double synergyWeight = agent.readProperty("synergy-weight", Double.class, DEFAULT_SYNERGY_WEIGHT);
+            engine = new BidEngine(topology, distribution, agent.id(), costPerKm, margin, synergyWeight);
+        }
+    }
+
+    @Override
+    public Long askPrice(Task task) {
+
+        // The routes are only repaired once the task is won: a repair can also
+        // improve routes the task does not touch, a gain that is not its own
+        VehicleRoute.Insertion insertion = VehicleRoute.cheapestInsertion(routes, task);
+
+        // None of our vehicles can carry this task
+        if (insertion == null) {
+            return null;
+        }
+        double marginalCost = insertion.cost();
+
+        switch (strategy) {
+        case MARGINAL:
+            return Math.round(marginalCost * (1 + margin));
+        case MODEL:
+            return engine.bid(task, marginalCost);
+        default:
+            throw new AssertionError("Should not happen.");
+        }
+    }
+
+    @Override
+    public void auctionResult(Task previous, int winner, Long[] bids) {
+
+        if (engine != null) {
+            engine.update(previous, bids);
+        }
+
+        if (winner == agent.id()) {
+            planner.add(Collections.singletonList(previous));
+        }
+    }
+
+    @Override
+    public List<Plan> plan(List<Vehicle> vehicles, TaskSet tasks) {
+        long time_start = System.currentTimeMillis();
+
+        // The tasks we receive carry the winning bids as rewards, so the stops
+        // are rebuilt with these instances.
+        Map<Integer, Task> won = new HashMap<Integer, Task>();
+        for (Task task : tasks) {
+            won.put(task.id, task);
+        }
+
+        List<VehicleRoute> finalRoutes = new ArrayList<VehicleRoute>();
+
+        for (int v = 0; v < vehicles.size(); v++) {
+            VehicleRoute route = new VehicleRoute(vehicles.get(v));
+
+            for (VehicleRoute.Stop stop : routes.get(v).stops) {
+                Task task = won.get(stop.task.id);
+                if (task != null) {
+                    route.stops.add(new VehicleRoute.Stop(task, stop.pickup));
+                }
+            }
+            finalRoutes.add(route);
+        }
+
+        for (VehicleRoute route : finalRoutes) {
+            for (Task task : route.tasks()) {
+                won.remove(task.id);
+            }
+        }
+
+        // Tasks we did not expect (should not happen) are simply inserted
+        for (Task task : won.values()) {
+            VehicleRoute.cheapestInsertion(finalRoutes, task).apply();
+        }
+
+        VehicleRoute.improve(finalRoutes, time_start + (long) (timeout_plan * PLAN_SHARE));
+
+        List<Plan> plans = new ArrayList<Plan>();
+        for (VehicleRoute route : finalRoutes) {
+            plans.add(route.toPlan());
+        }
+
+        long time_end = System.currentTimeMillis();
+        long duration = time_end - time_start;
+        System.out.println(agent.name() + ": The plan was generated in " + duration + " milliseconds.");
+
+        return plans;
+    }
+}
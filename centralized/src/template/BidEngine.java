@@ -0,0 +1,222 @@
+package template;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import logist.task.Task;
+import logist.task.TaskDistribution;
+import logist.topology.Topology;
+import logist.topology.Topology.City;
+
+/**
+ * Turns a marginal cost into a bid, using two models built from the
+ * information available to every auction agent.
+ *
+ * - Synergy: during setup, for every pair of cities, the expected distance
+ *   saved by carrying a task between them together with a future task drawn
+ *   from the task distribution. Tasks that combine well with future ones are
+ *   worth bidding a bit lower for.
+ *
+ * - Opponents: the bids of every opponent, relative to the length of the
+ *   auctioned task, are tracked with an exponential moving average. The
+ *   lowest expected opponent bid tells how much we can ask and still win.
+ *
+ * Bidding and updating only read and write fixed-size tables, so they take
+ * constant time whatever the number of rounds played.
+ *
+ */
+class BidEngine {
+
+    /** Only the most likely future tasks are used to compute synergies */
+    private static final int FUTURE_TASKS = 256;
+
+    /** Weight of the newest observation in the opponent averages */
+    private static final double SMOOTHING = 0.2;
+
+    /** Number of bids needed before trusting an opponent model */
+    private static final int WARMUP = 3;
+
+    /** How many standard deviations below the expected bid of an opponent we aim */
+    private static final double CAUTION = 1.0;
+
+    private final int self;
+    private final double costPerKm;
+    private final double margin;
+    private final double synergyWeight;
+
+    /** Expected km saved by a task between two cities, indexed by city ids */
+    private final double[][] synergy;
+
+    /** Per opponent: number of bids seen, mean and variance of bid / task length */
+    private int[] count = new int[0];
+    private double[] mean = new double[0];
+    private double[] variance = new double[0];
+
+    public BidEngine(Topology topology, TaskDistribution distribution, int self,
+            double costPerKm, double margin, double synergyWeight) {
+
+        this.self = self;
+        this.costPerKm = costPerKm;
+        this.margin = margin;
+        this.synergyWeight = synergyWeight;
+        this.synergy = setupSynergy(topology, distribution);
+    }
+
+    /**
+     * @param task the task being auctioned
+     * @param marginalCost the cost of adding this task to our plan
+     * @return the amount to ask for the task
+     */
+    public long bid(Task task, double marginalCost) {
+
+        double saving = synergy[task.pickupCity.id][task.deliveryCity.id] * costPerKm * synergyWeight;
+        double cost = Math.max(marginalCost - saving, 0);
+
+        double opponent = lowestOpponentBid(task);
+
+        if (opponent == Double.POSITIVE_INFINITY) {
+            return Math.round(cost * (1 + margin));
+        }
+
+        // Stay just under the cheapest opponent, but never below our own cost
+        return Math.round(Math.max(cost, opponent - 1));
+    }
+
+    /**
+     * Update the opponent models with the bids of the last auction.
+     */
+    public void update(Task task, Long[] bids) {
+
+        if (bids.length > count.length) {
+            grow(bids.length);
+        }
+
+        double length = task.pathLength();
+
+        for (int agent = 0; agent < bids.length; agent++) {
+
+            if (agent == self || bids[agent] == null || length == 0) {
+                continue;
+            }
+
+            double ratio = bids[agent] / length;
+
+            if (count[agent] == 0) {
+                mean[agent] = ratio;
+                variance[agent] = 0;
+            } else {
+                double delta = ratio - mean[agent];
+                mean[agent] += SMOOTHING * delta;
+                variance[agent] = (1 - SMOOTHING) * (variance[agent] + SMOOTHING * delta * delta);
+            }
+            count[agent]++;
+        }
+    }
+
+    private double lowestOpponentBid(Task task) {
+
+        double lowest = Double.POSITIVE_INFINITY;
+
+        for (int agent = 0; agent < count.length; agent++) {
+            if (agent != self && count[agent] >= WARMUP) {
+                double ratio = mean[agent] - CAUTION * Math.sqrt(variance[agent]);
+                lowest = Math.min(lowest, ratio * task.pathLength());
+            }
+        }
+        return lowest;
+    }
+
+    private void grow(int size) {
+        int[] newCount = new int[size];
+        double[] newMean = new double[size];
+        double[] newVariance = new double[size];
+
+        System.arraycopy(count, 0, newCount, 0, count.length);
+        System.arraycopy(mean, 0, newMean, 0, mean.length);
+        System.arraycopy(variance, 0, newVariance, 0, variance.length);
+
+        count = newCount;
+        mean = newMean;
+        variance = newVariance;
+    }
+
+    /**
+     * For every pair of cities (i, j), compute the expected distance saved
+     * when a task from i to j is carried together with a future task (c, d),
+     * rather than one after the other. The future tasks are the most likely
+     * ones according to the task distribution.
+     */
+    private static double[][] setupSynergy(Topology topology, TaskDistribution distribution) {
+
+        List<City> cities = topology.cities();
+        int n = topology.size();
+
+        List<double[]> futures = new ArrayList<double[]>();
+        for (City from : cities) {
+            for (City to : cities) {
+                double p = distribution.probability(from, to);
+                if (from != to && p > 0) {
+                    futures.add(new double[] { from.id, to.id, p });
+                }
+            }
+        }
+
+        Collections.sort(futures, new Comparator<double[]>() {
+
+            @Override
+            public int compare(double[] lhs, double[] rhs) {
+                return Double.compare(rhs[2], lhs[2]);
+            }
+        });
+
+        if (futures.size() > FUTURE_TASKS) {
+            futures = futures.subList(0, FUTURE_TASKS);
+        }
+
+        double total = 0;
+        for (double[] future : futures) {
+            total += future[2];
+        }
+
+        double[][] distances = new double[n][n];
+        for (City a : cities) {
+            for (City b : cities) {
+                distances[a.id][b.id] = a.distanceTo(b);
+            }
+        }
+
+        double[][] synergy = new double[n][n];
+
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+
+                if (i == j) {
+                    continue;
+                }
+
+                double expected = 0;
+
+                for (double[] future : futures) {
+                    int c = (int) future[0];
+                    int d = (int) future[1];
+
+                    // Separately, the vehicle goes i -> j, then j -> c -> d
+                    double separate = distances[i][j] + distances[j][c] + distances[c][d];
+
+                    // Together, picking up c on the way from i to j
+                    double together = Math.min(
+                            distances[i][c] + distances[c][j] + distances[j][d],
+                            distances[i][c] + distances[c][d] + distances[d][j]);
+
+                    expected += future[2] * Math.max(separate - together, 0);
+                }
+
+                synergy[i][j] = total == 0 ? 0 : expected / total;
+            }
+        }
+
+        return synergy;
+    }
+}
@@ -0,0 +1,294 @@
+package template;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import logist.plan.Plan;
+import logist.simulation.Vehicle;
+import logist.task.Task;
+import logist.task.TaskSet;
+
+/**
+ * An optimal planner for small fleets and task sets.
+ *
+ * Tasks are assigned to vehicles one at a time, the longest first. The cost
+ * of a vehicle is the exact cost of its best route (see {@link RouteSolver}).
+ * Since removing tasks from a route never makes it longer, the exact cost of
+ * the tasks assigned so far is a lower bound on the final cost. A partial
+ * assignment is pruned as soon as this bound, plus the cheapest way to fit
+ * the hardest remaining task, reaches the best complete plan found so far.
+ *
+ * The first levels of the search tree are explored in parallel. If the
+ * deadline passes first, the search stops with the best plan found so far,
+ * which is then not proven optimal (see {@link #provedOptimal()}).
+ *
+ */
+class BranchAndBound {
+
+    /** The largest task set the search handles, as every route is solved exactly */
+    public static final int MAX_TASKS = RouteSolver.MAX_TASKS;
+
+    /** Search subtrees in parallel down to this depth */
+    private static final int PARALLEL_DEPTH = 3;
+
+    private final List<Vehicle> vehicles;
+    private final List<Task> tasks;
+    private final RouteSolver[] solvers;
+    private final long deadline;
+
+    /** Exact route cost, keyed by vehicle and subset of tasks */
+    private final ConcurrentHashMap<Long, Double> costs = new ConcurrentHashMap<Long, Double>();
+
+    private volatile double bestCost;
+    private int[] bestAssignment;
+
+    /** Whether the deadline cut the search short */
+    private volatile boolean timedOut;
+
+    /**
+     * @param deadline the time at which to stop searching
+     */
+    public BranchAndBound(List<Vehicle> vehicles, TaskSet tasks, long deadline) {
+
+        if (tasks.size() > MAX_TASKS) {
+            throw new IllegalArgumentException("Branch and bound only handles up to "
+                    + MAX_TASKS + " tasks, got " + tasks.size());
+        }
+
+        this.vehicles = vehicles;
+        this.deadline = deadline;
+        this.tasks = new ArrayList<Task>(tasks);
+        this.solvers = new RouteSolver[vehicles.size()];
+
+        for (int v = 0; v < vehicles.size(); v++) {
+            solvers[v] = new RouteSolver(vehicles.get(v));
+        }
+
+        Collections.sort(this.tasks, new Comparator<Task>() {
+
+            @Override
+            public int compare(Task lhs, Task rhs) {
+                return Double.compare(rhs.pathLength(), lhs.pathLength());
+            }
+        });
+    }
+
+    public List<Plan> plan() {
+
+        initialSolution();
+
+        ForkJoinPool pool = new ForkJoinPool();
+        try {
+            pool.invoke(new Search(0, new int[vehicles.size()]));
+        } finally {
+            pool.shutdown();
+        }
+
+        List<Plan> plans = new ArrayList<Plan>();
+
+        for (int v = 0; v < vehicles.size(); v++) {
+            List<Task> owned = new ArrayList<Task>();
+
+            for (int k = 0; k < tasks.size(); k++) {
+                if (bestAssignment[k] == v) {
+                    owned.add(tasks.get(k));
+                }
+            }
+            plans.add(solvers[v].route(owned).toPlan());
+        }
+        return plans;
+    }
+
+    /**
+     * @return the cost of the best plan found
+     */
+    public double cost() {
+        return bestCost;
+    }
+
+    /**
+     * @return whether the search went through the whole tree, so that the best
+     *         plan found is optimal
+     */
+    public boolean provedOptimal() {
+        return !timedOut;
+    }
+
+    /**
+     * Seed the upper bound with the cheapest insertion of every task, so that
+     * the search can prune from the very beginning.
+     */
+    private void initialSolution() {
+
+        List<VehicleRoute> routes = new ArrayList<VehicleRoute>();
+        for (Vehicle vehicle : vehicles) {
+            routes.add(new VehicleRoute(vehicle));
+        }
+
+        int[] assignment = new int[tasks.size()];
+        int[] masks = new int[vehicles.size()];
+
+        for (int k = 0; k < tasks.size(); k++) {
+            VehicleRoute.Insertion best = VehicleRoute.cheapestInsertion(routes, tasks.get(k));
+
+            if (best == null) {
+                throw new IllegalArgumentException("No vehicle can carry task " + tasks.get(k));
+            }
+
+            best.apply();
+            assignment[k] = routes.indexOf(best.route);
+            masks[assignment[k]] |= 1 << k;
+        }
+
+        double cost = 0;
+        for (int v = 0; v < vehicles.size(); v++) {
+            cost += cost(v, masks[v]);
+        }
+
+        bestCost = cost;
+        bestAssignment = assignment;
+    }
+
+    private double cost(int v, int mask) {
+
+        Long key = (long) mask * vehicles.size() + v;
+        Double cost = costs.get(key);
+
+        if (cost == null) {
+            List<Task> owned = new ArrayList<Task>();
+            for (int k = 0; k < tasks.size(); k++) {
+                if ((mask & 1 << k) != 0) {
+                    owned.add(tasks.get(k));
+                }
+            }
+
+            cost = solvers[v].distance(owned) * vehicles.get(v).costPerKm();
+            costs.put(key, cost);
+        }
+        return cost;
+    }
+
+    private synchronized void offer(double cost, int[] masks) {
+
+        if (cost < bestCost) {
+            int[] assignment = new int[tasks.size()];
+
+            for (int v = 0; v < masks.length; v++) {
+                for (int k = 0; k < tasks.size(); k++) {
+                    if ((masks[v] & 1 << k) != 0) {
+                        assignment[k] = v;
+                    }
+                }
+            }
+
+            bestCost = cost;
+            bestAssignment = assignment;
+        }
+    }
+
+    /**
+     * Two vehicles are interchangeable if they start from the same city with
+     * the same capacity and cost. Assigning a task to either of them while
+     * both are empty leads to the same plans, so only the first one is tried.
+     */
+    private boolean isSymmetric(int v, int[] masks) {
+
+        Vehicle vehicle = vehicles.get(v);
+
+        for (int u = 0; u < v; u++) {
+            Vehicle other = vehicles.get(u);
+
+            if (masks[u] == 0 && masks[v] == 0
+                    && other.getCurrentCity() == vehicle.getCurrentCity()
+                    && other.capacity() == vehicle.capacity()
+                    && other.costPerKm() == vehicle.costPerKm()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Explore all assignments of the tasks from index depth onwards, given
+     * the tasks already assigned in masks.
+     */
+    class Search extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int depth;
+        private final int[] masks;
+
+        public Search(int depth, int[] masks) {
+            this.depth = depth;
+            this.masks = masks;
+        }
+
+        @Override
+        protected void compute() {
+
+            if (System.currentTimeMillis() >= deadline) {
+                timedOut = true;
+                return;
+            }
+
+            double cost = 0;
+            for (int v = 0; v < masks.length; v++) {
+                cost += cost(v, masks[v]);
+            }
+
+            if (depth == tasks.size()) {
+                offer(cost, masks);
+                return;
+            }
+
+            // The hardest remaining task has to go somewhere
+            double insertionBound = 0;
+
+            for (int k = depth; k < tasks.size(); k++) {
+                double cheapest = Double.POSITIVE_INFINITY;
+
+                for (int v = 0; v < masks.length; v++) {
+                    cheapest = Math.min(cheapest, cost(v, masks[v] | 1 << k) - cost(v, masks[v]));
+                }
+                insertionBound = Math.max(insertionBound, cheapest);
+            }
+
+            if (cost + insertionBound >= bestCost) {
+                return;
+            }
+
+            // The exact costs of the next task were all solved by the bound above
+            List<Search> children = new ArrayList<Search>();
+
+            for (int v = 0; v < masks.length; v++) {
+
+                if (isSymmetric(v, masks)) {
+                    continue;
+                }
+
+                int[] childMasks = masks.clone();
+                childMasks[v] |= 1 << depth;
+
+                if (cost - cost(v, masks[v]) + cost(v, childMasks[v]) >= bestCost) {
+                    continue;
+                }
+
+                children.add(new Search(depth + 1, childMasks));
+            }
+
+            if (depth < PARALLEL_DEPTH) {
+                invokeAll(children);
+            } else {
+                for (Search child : children) {
+                    child.compute();
+                }
+            }
+        }
+    }
+}
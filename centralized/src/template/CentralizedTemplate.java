@@ -27,12 +27,23 @@ import logist.topology.Topology.City;
 @SuppressWarnings("unused")
 public class CentralizedTemplate implements CentralizedBehavior {
 
+    enum Mode { NAIVE, DECOMPOSITION, OPTIMAL, TABU, INCREMENTAL }
+
     private Topology topology;
     private TaskDistribution distribution;
     private Agent agent;
     private long timeout_setup;
     private long timeout_plan;
     
+    /* the planning mode and its parameters */
+    private Mode mode;
+    private int clusterSize;
+    private int tabuTenure;
+    private int tabuIterations;
+    private int tabuSize;
+    private int batchSize;
+    private int repairMoves;
+    
     @Override
     public void setup(Topology topology, TaskDistribution distribution,
             Agent agent) {
@@ -40,7 +51,7 @@ public class CentralizedTemplate implements CentralizedBehavior {
         // this code is used to get the timeouts
         LogistSettings ls = null;
         try {
-            ls = Parsers.parseSettings("config\\settings_default.xml");
+            ls = Parsers.parseSettings("config/settings_default.xml");
         }
         catch (Exception exc) {
             System.out.println("There was a problem loading the configuration file.");
@@ -54,28 +65,121 @@ public class CentralizedTemplate implements CentralizedBehavior {
         this.topology = topology;
         this.distribution = distribution;
         this.agent = agent;
+        
+        // Throws IllegalArgumentException if mode is unknown
+        String modeName = agent.readProperty("mode", String.class, "NAIVE");
+        mode = Mode.valueOf(modeName.toUpperCase());
+        clusterSize = agent.readProperty("cluster-size", Integer.class, ClusterDecomposition.DEFAULT_CLUSTER_SIZE);
+        tabuTenure = agent.readProperty("tabu-tenure", Integer.class, TabuSearch.DEFAULT_TENURE);
+        tabuIterations = agent.readProperty("tabu-iterations", Integer.class, TabuSearch.DEFAULT_ITERATIONS);
+        tabuSize = agent.readProperty("tabu-size", Integer.class, TabuSearch.DEFAULT_TABLE_SIZE);
+        batchSize = agent.readProperty("batch-size", Integer.class, IncrementalPlanner.DEFAULT_BATCH_SIZE);
+        repairMoves = agent.readProperty("repair-moves", Integer.class, IncrementalPlanner.DEFAULT_REPAIR_MOVES);
     }
 
     @Override
     public List<Plan> plan(List<Vehicle> vehicles, TaskSet tasks) {
         long time_start = System.currentTimeMillis();
         
+        PlanEvent event = new PlanEvent();
+        event.begin();
+        
 //		System.out.println("Agent " + agent.id() + " has tasks " + tasks);
-        Plan planVehicle1 = naivePlan(vehicles.get(0), tasks);
-
-        List<Plan> plans = new ArrayList<Plan>();
-        plans.add(planVehicle1);
-        while (plans.size() < vehicles.size()) {
-            plans.add(Plan.EMPTY);
+        List<Plan> plans;
+        
+        // Keep a tenth of the time to build the plans and return them
+        long deadline = time_start + timeout_plan * 9 / 10;
+        
+        switch (mode) {
+        case NAIVE:
+            plans = new ArrayList<Plan>();
+            plans.add(naivePlan(vehicles.get(0), tasks));
+            while (plans.size() < vehicles.size()) {
+                plans.add(Plan.EMPTY);
+            }
+            break;
+        case DECOMPOSITION:
+            plans = new ClusterDecomposition(clusterSize, time_start + timeout_plan).plan(vehicles, tasks);
+            break;
+        case OPTIMAL:
+            if (tasks.size() <= BranchAndBound.MAX_TASKS) {
+                BranchAndBound search = new BranchAndBound(vehicles, tasks, deadline);
+                plans = search.plan();
+                
+                // A search cut short by the deadline only gives the best plan it found
+                System.out.println(agent.name() + (search.provedOptimal() ? ": The optimal cost is "
+                        : ": The best cost found before the timeout, not proven optimal, is ") + Math.round(search.cost()) + ".");
+            } else {
+                // Too many tasks for an exhaustive search
+                System.out.println(agent.name() + ": " + tasks.size() + " tasks are too many for an optimal plan (at most "
+                        + BranchAndBound.MAX_TASKS + "), using a tabu search.");
+                plans = new TabuSearch(vehicles, tasks, deadline, tabuTenure, tabuIterations, tabuSize).plan();
+            }
+            break;
+        case TABU:
+            plans = new TabuSearch(vehicles, tasks, deadline, tabuTenure, tabuIterations, tabuSize).plan();
+            break;
+        case INCREMENTAL:
+            plans = incrementalPlan(vehicles, tasks);
+            break;
+        default:
+            throw new AssertionError("Should not happen.");
         }
         
         long time_end = System.currentTimeMillis();
         long duration = time_end - time_start;
-        System.out.println("The plan was generated in "+duration+" milliseconds.");
+        System.out.println(agent.name()+": The plan was generated in "+duration+" milliseconds.");
+        
+        if (event.shouldCommit()) {
+            event.agent = agent.name();
+            event.mode = mode.name();
+            event.vehicles = vehicles.size();
+            event.tasks = tasks.size();
+            
+            for (int v = 0; v < plans.size(); v++) {
+                event.cost += plans.get(v).totalDistance() * vehicles.get(v).costPerKm();
+            }
+            event.commit();
+        }
         
         return plans;
     }
 
+    /**
+     * Plan the tasks as if they arrived in batches of batchSize, each one
+     * inserted in the plan of the previous ones.
+     */
+    private List<Plan> incrementalPlan(List<Vehicle> vehicles, TaskSet tasks) {
+        List<VehicleRoute> routes = new ArrayList<VehicleRoute>();
+        for (Vehicle vehicle : vehicles) {
+            routes.add(new VehicleRoute(vehicle));
+        }
+        
+        IncrementalPlanner planner = new IncrementalPlanner(routes, repairMoves);
+        List<Task> batch = new ArrayList<Task>();
+
+        for (Task task : tasks) {
+            batch.add(task);
+
+            if (batch.size() == batchSize) {
+                addBatch(planner, batch);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            addBatch(planner, batch);
+        }
+        return planner.plans();
+    }
+
+    private void addBatch(IncrementalPlanner planner, List<Task> batch) {
+        List<Task> rejected = planner.add(batch);
+
+        if (!rejected.isEmpty()) {
+            throw new IllegalArgumentException("No vehicle can carry tasks " + rejected);
+        }
+    }
+
     private Plan naivePlan(Vehicle vehicle, TaskSet tasks) {
         City current = vehicle.getCurrentCity();
         Plan plan = new Plan(current);
@@ -0,0 +1,296 @@
+package template;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import logist.plan.Plan;
+import logist.simulation.Vehicle;
+import logist.task.Task;
+import logist.task.TaskSet;
+import logist.topology.Topology.City;
+
+/**
+ * Cluster-first, route-second planner for large task sets.
+ *
+ * Tasks are split into geographic clusters of bounded size using their pickup
+ * and delivery coordinates. Clusters are then handed to vehicles according to
+ * the distance from their home city and their share of the fleet capacity.
+ * Finally, every vehicle routes its own clusters one after the other, all
+ * vehicles in parallel. Since each cluster is routed on its own, the work
+ * grows linearly with the number of tasks.
+ *
+ */
+class ClusterDecomposition {
+
+    public static final int DEFAULT_CLUSTER_SIZE = 12;
+
+    private final int clusterSize;
+    private final long deadline;
+
+    public ClusterDecomposition(int clusterSize, long deadline) {
+        this.clusterSize = Math.max(clusterSize, 1);
+        this.deadline = deadline;
+    }
+
+    public List<Plan> plan(List<Vehicle> vehicles, TaskSet tasks) {
+
+        // 1. Cluster tasks geographically
+
+        List<Cluster> clusters = new ArrayList<Cluster>();
+        bisect(new ArrayList<Task>(tasks), clusters);
+
+        // 2. Give each cluster to a vehicle
+
+        List<List<Cluster>> assignment = assign(vehicles, clusters);
+
+        // 3. Route each vehicle independently, in parallel
+
+        int threads = Math.min(vehicles.size(), Runtime.getRuntime().availableProcessors());
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(threads, 1));
+        List<Future<Plan>> futures = new ArrayList<Future<Plan>>();
+
+        for (int v = 0; v < vehicles.size(); v++) {
+            final Vehicle vehicle = vehicles.get(v);
+            final List<Cluster> owned = assignment.get(v);
+
+            futures.add(executor.submit(new Callable<Plan>() {
+
+                @Override
+                public Plan call() {
+                    return route(vehicle, owned);
+                }
+            }));
+        }
+
+        List<Plan> plans = new ArrayList<Plan>();
+
+        try {
+            for (Future<Plan> future : futures) {
+                plans.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Planning was interrupted.", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Could not route a vehicle.", e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+
+        return plans;
+    }
+
+    /**
+     * Recursively split the tasks in two halves along the coordinate with the
+     * largest spread, until every part holds at most clusterSize tasks.
+     */
+    private void bisect(List<Task> tasks, List<Cluster> clusters) {
+
+        if (tasks.isEmpty()) {
+            return;
+        }
+
+        if (tasks.size() <= clusterSize) {
+            clusters.add(new Cluster(tasks));
+            return;
+        }
+
+        int widest = 0;
+        double widestSpread = -1;
+
+        for (int dimension = 0; dimension < 4; dimension++) {
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+
+            for (Task task : tasks) {
+                min = Math.min(min, coordinate(task, dimension));
+                max = Math.max(max, coordinate(task, dimension));
+            }
+
+            if (max - min > widestSpread) {
+                widestSpread = max - min;
+                widest = dimension;
+            }
+        }
+
+        final int dimension = widest;
+
+        Collections.sort(tasks, new Comparator<Task>() {
+
+            @Override
+            public int compare(Task lhs, Task rhs) {
+                return Double.compare(coordinate(lhs, dimension), coordinate(rhs, dimension));
+            }
+        });
+
+        int middle = tasks.size() / 2;
+        bisect(new ArrayList<Task>(tasks.subList(0, middle)), clusters);
+        bisect(new ArrayList<Task>(tasks.subList(middle, tasks.size())), clusters);
+    }
+
+    private static double coordinate(Task task, int dimension) {
+        switch (dimension) {
+        case 0: return task.pickupCity.xPos;
+        case 1: return task.pickupCity.yPos;
+        case 2: return task.deliveryCity.xPos;
+        case 3: return task.deliveryCity.yPos;
+        default: throw new AssertionError("Should not happen.");
+        }
+    }
+
+    /**
+     * Greedily give the heaviest clusters first to the vehicle whose home city
+     * is the closest, as long as that vehicle did not exceed its share of the
+     * total weight (proportional to its capacity).
+     */
+    private List<List<Cluster>> assign(List<Vehicle> vehicles, List<Cluster> clusters) {
+
+        List<List<Cluster>> assignment = new ArrayList<List<Cluster>>();
+        double[] share = new double[vehicles.size()];
+        int[] load = new int[vehicles.size()];
+
+        int totalCapacity = 0;
+        int totalWeight = 0;
+
+        for (Vehicle vehicle : vehicles) {
+            totalCapacity += vehicle.capacity();
+            assignment.add(new ArrayList<Cluster>());
+        }
+
+        for (Cluster cluster : clusters) {
+            totalWeight += cluster.weight;
+        }
+
+        for (int v = 0; v < vehicles.size(); v++) {
+            share[v] = (double) totalWeight * vehicles.get(v).capacity() / totalCapacity;
+        }
+
+        List<Cluster> sorted = new ArrayList<Cluster>(clusters);
+        Collections.sort(sorted, new Comparator<Cluster>() {
+
+            @Override
+            public int compare(Cluster lhs, Cluster rhs) {
+                return Integer.compare(rhs.weight, lhs.weight);
+            }
+        });
+
+        for (Cluster cluster : sorted) {
+
+            int best = -1;
+            double bestCost = Double.POSITIVE_INFINITY;
+            boolean bestWithinShare = false;
+
+            for (int v = 0; v < vehicles.size(); v++) {
+                Vehicle vehicle = vehicles.get(v);
+
+                if (vehicle.capacity() < cluster.maxWeight) {
+                    continue;
+                }
+
+                boolean withinShare = load[v] + cluster.weight <= share[v];
+                double cost = cluster.distanceFrom(vehicle.homeCity()) * vehicle.costPerKm();
+
+                if (withinShare && !bestWithinShare || withinShare == bestWithinShare && cost < bestCost) {
+                    best = v;
+                    bestCost = cost;
+                    bestWithinShare = withinShare;
+                }
+            }
+
+            if (best == -1) {
+                throw new IllegalArgumentException("No vehicle can carry a task of weight " + cluster.maxWeight);
+            }
+
+            assignment.get(best).add(cluster);
+            load[best] += cluster.weight;
+        }
+
+        return assignment;
+    }
+
+    /**
+     * Route the clusters of a vehicle one after the other, always moving on
+     * to the nearest remaining cluster.
+     */
+    private Plan route(Vehicle vehicle, List<Cluster> clusters) {
+
+        VehicleRoute route = new VehicleRoute(vehicle);
+        List<Cluster> remaining = new ArrayList<Cluster>(clusters);
+
+        while (!remaining.isEmpty()) {
+
+            Cluster next = null;
+            for (Cluster cluster : remaining) {
+                if (next == null || cluster.distanceFrom(route.end()) < next.distanceFrom(route.end())) {
+                    next = cluster;
+                }
+            }
+            remaining.remove(next);
+
+            VehicleRoute segment = new VehicleRoute(vehicle, route.end());
+
+            for (Task task : next.tasks) {
+                segment.cheapestInsertion(task).apply();
+            }
+            segment.improve(deadline);
+
+            route.stops.addAll(segment.stops);
+        }
+
+        return route.toPlan();
+    }
+
+    /**
+     * A group of tasks with nearby pickups and deliveries.
+     */
+    static class Cluster {
+
+        final List<Task> tasks;
+        final int weight;
+        final int maxWeight;
+        final double pickupX;
+        final double pickupY;
+
+        public Cluster(List<Task> tasks) {
+            this.tasks = tasks;
+
+            int weight = 0;
+            int maxWeight = 0;
+            double x = 0;
+            double y = 0;
+
+            // Insert long tasks first, they shape the route the most
+            Collections.sort(tasks, new Comparator<Task>() {
+
+                @Override
+                public int compare(Task lhs, Task rhs) {
+                    return Double.compare(rhs.pathLength(), lhs.pathLength());
+                }
+            });
+
+            for (Task task : tasks) {
+                weight += task.weight;
+                maxWeight = Math.max(maxWeight, task.weight);
+                x += task.pickupCity.xPos;
+                y += task.pickupCity.yPos;
+            }
+
+            this.weight = weight;
+            this.maxWeight = maxWeight;
+            this.pickupX = x / tasks.size();
+            this.pickupY = y / tasks.size();
+        }
+
+        /** Straight-line distance from a city to the centre of the pickups. */
+        public double distanceFrom(City city) {
+            return Math.hypot(city.xPos - pickupX, city.yPos - pickupY);
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package template;
+
+import java.util.List;
+import java.util.Random;
+
+import logist.task.Task;
+
+/**
+ * Zobrist fingerprints of the routes of a fleet, so that a local search can
+ * recognize the solutions it has already visited without comparing them.
+ *
+ * The nodes of the routes are the pickup (2k) and the delivery (2k + 1) of
+ * every task k, and the start of every vehicle v (2n + v for n tasks). A fleet
+ * is the set of the edges between consecutive nodes: as every route begins at
+ * the start of its vehicle, the edges give back the task sequence of every
+ * vehicle. The fingerprint is the XOR of a random key per edge.
+ *
+ * Keys are given to edges and not to (task, vehicle, position) triples, as
+ * inserting or removing a stop shifts the position of all the stops after it,
+ * but only changes three edges. Every move of a task thus updates the
+ * fingerprint in constant time.
+ */
+class Fingerprint {
+
+    /** Random keys of the node at the tail and at the head of an edge */
+    private final long[] tails;
+    private final long[] heads;
+
+    /** Index of every task, by task id */
+    private final int[] indices;
+    private final int taskCount;
+
+    public Fingerprint(int vehicleCount, List<Task> tasks, long seed) {
+
+        this.taskCount = tasks.size();
+
+        int maxId = -1;
+        for (Task task : tasks) {
+            maxId = Math.max(maxId, task.id);
+        }
+
+        this.indices = new int[maxId + 1];
+        for (int k = 0; k < tasks.size(); k++) {
+            indices[tasks.get(k).id] = k;
+        }
+
+        Random random = new Random(seed);
+        int nodes = 2 * taskCount + vehicleCount;
+
+        this.tails = new long[nodes];
+        this.heads = new long[nodes];
+
+        for (int node = 0; node < nodes; node++) {
+            tails[node] = random.nextLong();
+            heads[node] = random.nextLong();
+        }
+    }
+
+    public int node(VehicleRoute.Stop stop) {
+        return 2 * indices[stop.task.id] + (stop.pickup ? 0 : 1);
+    }
+
+    public int start(int vehicle) {
+        return 2 * taskCount + vehicle;
+    }
+
+    /**
+     * @return the nodes of the stops of a route, in order
+     */
+    public int[] nodes(VehicleRoute route) {
+
+        int[] nodes = new int[route.stops.size()];
+
+        for (int k = 0; k < nodes.length; k++) {
+            nodes[k] = node(route.stops.get(k));
+        }
+        return nodes;
+    }
+
+    /**
+     * @return the fingerprint of a fleet, where route v belongs to vehicle v
+     */
+    public long of(List<VehicleRoute> routes) {
+
+        long fingerprint = 0;
+
+        for (int v = 0; v < routes.size(); v++) {
+            int previous = start(v);
+
+            for (VehicleRoute.Stop stop : routes.get(v).stops) {
+                fingerprint ^= edge(previous, node(stop));
+                previous = node(stop);
+            }
+        }
+        return fingerprint;
+    }
+
+    /**
+     * @return the key of the edge from one node to another
+     */
+    public long edge(int tail, int head) {
+
+        // The keys are mixed, as a plain XOR of the two would not depend on the
+        // order of the nodes in the route
+        long z = tails[tail] ^ heads[head];
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * @param next the node after the removed one, or -1 if it is the last one
+     * @return the change of the fingerprint when a node is removed from between two others
+     */
+    public long removal(int previous, int node, int next) {
+
+        long change = edge(previous, node);
+
+        if (next >= 0) {
+            change ^= edge(node, next) ^ edge(previous, next);
+        }
+        return change;
+    }
+
+    /**
+     * The change of the fingerprint when a task is inserted in a route, its
+     * pickup before stop i and its delivery before stop j (see
+     * {@link VehicleRoute#insert}).
+     *
+     * @param start the start node of the route
+     * @param nodes the nodes of the stops of the route
+     * @param size the number of stops of the route
+     */
+    public long insertion(int start, int[] nodes, int size, int pickup, int delivery, int i, int j) {
+
+        int previous = i == 0 ? start : nodes[i - 1];
+        long change = edge(previous, pickup);
+
+        if (i == j) {
+            change ^= edge(pickup, delivery);
+
+            if (i < size) {
+                change ^= edge(delivery, nodes[i]) ^ edge(previous, nodes[i]);
+            }
+            return change;
+        }
+
+        change ^= edge(pickup, nodes[i]) ^ edge(previous, nodes[i]);
+        change ^= edge(nodes[j - 1], delivery);
+
+        if (j < size) {
+            change ^= edge(delivery, nodes[j]) ^ edge(nodes[j - 1], nodes[j]);
+        }
+        return change;
+    }
+}
@@ -0,0 +1,210 @@
+package template;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import logist.plan.Plan;
+import logist.task.Task;
+
+/**
+ * The plan of a fleet kept up to date as tasks arrive and are cancelled in
+ * batches, without planning the whole fleet again.
+ *
+ * Every new task is inserted at its cheapest position, the longest of a batch
+ * first. The routes are then repaired locally: the tasks of the batch, and the
+ * tasks next to the stops that were inserted or removed, are moved to their
+ * cheapest position in the fleet if it lowers the cost (see
+ * {@link VehicleRoute#relocate}). A task that moves makes its old and new
+ * neighbours candidates in turn, up to a number of relocations per task of the
+ * batch.
+ *
+ * A batch of b tasks thus costs at most (1 + repairMoves) b cheapest
+ * insertions, each of which tries every pair of positions in every route: in
+ * O(repairMoves b v n^2) for v routes of at most n stops. Unlike
+ * {@link VehicleRoute#improve(List, long)}, which moves every planned task,
+ * it does not go through the tasks the batch did not touch, but it still
+ * grows with the length of the routes.
+ */
+class IncrementalPlanner {
+
+    public static final int DEFAULT_BATCH_SIZE = 10;
+    public static final int DEFAULT_REPAIR_MOVES = 8;
+
+    private final List<VehicleRoute> routes;
+
+    /** The route of every planned task, by task id */
+    private final Map<Integer, VehicleRoute> owners = new HashMap<Integer, VehicleRoute>();
+
+    private final int repairMoves;
+
+    /**
+     * @param routes the routes of the fleet, which the planner changes in place
+     * @param repairMoves the number of relocations tried per task of a batch
+     */
+    public IncrementalPlanner(List<VehicleRoute> routes, int repairMoves) {
+
+        this.routes = routes;
+        this.repairMoves = repairMoves;
+
+        for (VehicleRoute route : routes) {
+            for (Task task : route.tasks()) {
+                owners.put(task.id, route);
+            }
+        }
+    }
+
+    /**
+     * Insert a batch of new tasks in the routes, then repair them around the
+     * insertions.
+     *
+     * @return the tasks that no vehicle can carry, which are not planned
+     */
+    public List<Task> add(Collection<Task> batch) {
+
+        List<Task> tasks = new ArrayList<Task>(batch);
+        Collections.sort(tasks, new Comparator<Task>() {
+
+            @Override
+            public int compare(Task lhs, Task rhs) {
+                return Double.compare(rhs.pathLength(), lhs.pathLength());
+            }
+        });
+
+        List<Task> rejected = new ArrayList<Task>();
+        Set<Task> candidates = new HashSet<Task>();
+
+        for (Task task : tasks) {
+            if (owners.containsKey(task.id)) {
+                continue;
+            }
+
+            VehicleRoute.Insertion best = VehicleRoute.cheapestInsertion(routes, task);
+
+            if (best == null) {
+                rejected.add(task);
+                continue;
+            }
+            best.apply();
+            owners.put(task.id, best.route);
+
+            candidates.add(task);
+        }
+
+        // The neighbours are looked for once all the tasks are in, as a later
+        // insertion can separate an earlier one from its neighbours
+        Deque<Task> queue = new ArrayDeque<Task>();
+        for (Task task : candidates) {
+            queue.add(task);
+            queue.addAll(neighbours(owners.get(task.id), task));
+        }
+
+        repair(queue, repairMoves * candidates.size());
+        return rejected;
+    }
+
+    /**
+     * Remove a batch of tasks from the routes, then repair them around the
+     * removals. Tasks that are not planned are ignored.
+     */
+    public void cancel(Collection<Task> batch) {
+
+        int cancelled = 0;
+        Deque<Task> queue = new ArrayDeque<Task>();
+
+        for (Task task : batch) {
+            VehicleRoute route = owners.remove(task.id);
+
+            if (route == null) {
+                continue;
+            }
+            queue.addAll(neighbours(route, task));
+            route.remove(task);
+            cancelled++;
+        }
+
+        // Neighbours cancelled later in the batch are no longer planned, and skipped
+        repair(queue, repairMoves * cancelled);
+    }
+
+    /**
+     * Relocate the queued tasks, adding the neighbours of every task that
+     * moves, until the queue is empty or the relocations run out.
+     */
+    private void repair(Deque<Task> queue, int budget) {
+
+        while (budget > 0 && !queue.isEmpty()) {
+
+            Task task = queue.poll();
+            VehicleRoute route = owners.get(task.id);
+
+            if (route == null) {
+                continue;
+            }
+            budget--;
+
+            List<Task> left = neighbours(route, task);
+            VehicleRoute moved = VehicleRoute.relocate(routes, route, task);
+
+            if (moved != null) {
+                owners.put(task.id, moved);
+                queue.addAll(left);
+                queue.addAll(neighbours(moved, task));
+            }
+        }
+    }
+
+    /**
+     * @return the tasks of the stops just before and after the stops of a task
+     */
+    private static List<Task> neighbours(VehicleRoute route, Task task) {
+
+        List<Task> neighbours = new ArrayList<Task>();
+        List<VehicleRoute.Stop> stops = route.stops;
+
+        for (int k = 0; k < stops.size(); k++) {
+            if (stops.get(k).task.id != task.id) {
+                continue;
+            }
+            if (k > 0 && stops.get(k - 1).task.id != task.id) {
+                neighbours.add(stops.get(k - 1).task);
+            }
+            if (k + 1 < stops.size() && stops.get(k + 1).task.id != task.id) {
+                neighbours.add(stops.get(k + 1).task);
+            }
+        }
+        return neighbours;
+    }
+
+    public int size() {
+        return owners.size();
+    }
+
+    public double cost() {
+        double cost = 0;
+        for (VehicleRoute route : routes) {
+            cost += route.cost();
+        }
+        return cost;
+    }
+
+    /**
+     * @return the plan of every vehicle, in the order of the vehicles
+     */
+    public List<Plan> plans() {
+
+        List<Plan> plans = new ArrayList<Plan>();
+        for (VehicleRoute route : routes) {
+            plans.add(route.toPlan());
+        }
+        return plans;
+    }
+}
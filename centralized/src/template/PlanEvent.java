@@ -0,0 +1,36 @@
+package template;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event of one call to CentralizedTemplate.plan. When no
+ * recording is running, begin and commit do nothing, and the fields are not
+ * even computed.
+ */
+@Name("centralized.Plan")
+@Label("Centralized Plan")
+@Category({ "Logist", "Centralized" })
+@Description("Computation of the plans of a fleet")
+@StackTrace(false)
+class PlanEvent extends jdk.jfr.Event {
+
+    @Label("Agent")
+    String agent;
+
+    @Label("Mode")
+    String mode;
+
+    @Label("Vehicles")
+    int vehicles;
+
+    @Label("Tasks")
+    int tasks;
+
+    @Label("Cost")
+    @Description("Total cost of the plans of all the vehicles")
+    double cost;
+}
@@ -0,0 +1,167 @@
+package template;
+
+import java.util.Arrays;
+import java.util.List;
+
+import logist.simulation.Vehicle;
+import logist.task.Task;
+import logist.topology.Topology.City;
+
+/**
+ * Exact route for one vehicle and a small list of tasks, computed by dynamic
+ * programming over the status of every task (waiting, carried or delivered)
+ * and the last visited stop.
+ *
+ * States are encoded in base 3, one digit per task. Every action increases
+ * exactly one digit, so iterating states in increasing order visits each
+ * state after all of its predecessors.
+ *
+ */
+class RouteSolver {
+
+    /** Above this many tasks, the tables would no longer fit comfortably in memory. */
+    public static final int MAX_TASKS = 11;
+
+    private final Vehicle vehicle;
+    private final City start;
+
+    public RouteSolver(Vehicle vehicle) {
+        this.vehicle = vehicle;
+        this.start = vehicle.getCurrentCity();
+    }
+
+    /**
+     * @return the length (in km) of the shortest route serving all tasks, or
+     *         POSITIVE_INFINITY if some task does not fit in the vehicle.
+     */
+    public double distance(List<Task> tasks) {
+        return solve(tasks, null);
+    }
+
+    /**
+     * @return the shortest route serving all tasks, or null if some task does
+     *         not fit in the vehicle.
+     */
+    public VehicleRoute route(List<Task> tasks) {
+        VehicleRoute route = new VehicleRoute(vehicle, start);
+        return solve(tasks, route) == Double.POSITIVE_INFINITY ? null : route;
+    }
+
+    private double solve(List<Task> tasks, VehicleRoute route) {
+
+        int m = tasks.size();
+
+        if (m == 0) {
+            return 0;
+        }
+
+        if (m > MAX_TASKS) {
+            throw new IllegalArgumentException("Cannot solve exactly a route with " + m + " tasks.");
+        }
+
+        // Stop 2i is the pickup of task i, stop 2i+1 its delivery.
+        int stops = 2 * m;
+        City[] cities = new City[stops];
+        int[] weights = new int[m];
+        int[] pow3 = new int[m + 1];
+        pow3[0] = 1;
+
+        for (int i = 0; i < m; i++) {
+            Task task = tasks.get(i);
+            cities[2 * i] = task.pickupCity;
+            cities[2 * i + 1] = task.deliveryCity;
+            weights[i] = task.weight;
+            pow3[i + 1] = 3 * pow3[i];
+
+            if (task.weight > vehicle.capacity()) {
+                return Double.POSITIVE_INFINITY;
+            }
+        }
+
+        double[][] distances = new double[stops][stops];
+        for (int a = 0; a < stops; a++) {
+            for (int b = 0; b < stops; b++) {
+                distances[a][b] = cities[a].distanceTo(cities[b]);
+            }
+        }
+
+        int states = pow3[m];
+        double[] cost = new double[states * stops];
+        byte[] parent = new byte[states * stops];
+        Arrays.fill(cost, Double.POSITIVE_INFINITY);
+
+        for (int i = 0; i < m; i++) {
+            cost[pow3[i] * stops + 2 * i] = start.distanceTo(cities[2 * i]);
+            parent[pow3[i] * stops + 2 * i] = -1;
+        }
+
+        int[] digits = new int[m];
+
+        for (int state = 1; state < states; state++) {
+
+            int load = 0;
+            for (int i = 0, rest = state; i < m; i++, rest /= 3) {
+                digits[i] = rest % 3;
+                if (digits[i] == 1) {
+                    load += weights[i];
+                }
+            }
+
+            for (int last = 0; last < stops; last++) {
+
+                double current = cost[state * stops + last];
+
+                if (current == Double.POSITIVE_INFINITY) {
+                    continue;
+                }
+
+                for (int i = 0; i < m; i++) {
+
+                    int next;
+                    if (digits[i] == 0 && load + weights[i] <= vehicle.capacity()) {
+                        next = 2 * i;
+                    } else if (digits[i] == 1) {
+                        next = 2 * i + 1;
+                    } else {
+                        continue;
+                    }
+
+                    int index = (state + pow3[i]) * stops + next;
+                    double candidate = current + distances[last][next];
+
+                    if (candidate < cost[index]) {
+                        cost[index] = candidate;
+                        parent[index] = (byte) last;
+                    }
+                }
+            }
+        }
+
+        int goal = states - 1;
+        int best = -1;
+
+        for (int last = 0; last < stops; last++) {
+            if (best == -1 || cost[goal * stops + last] < cost[goal * stops + best]) {
+                best = last;
+            }
+        }
+
+        if (route != null) {
+
+            // Walk back the parents, every stop changed the digit of its own task
+            int state = goal;
+            int last = best;
+
+            while (last != -1) {
+                Task task = tasks.get(last / 2);
+                route.stops.add(0, new VehicleRoute.Stop(task, last % 2 == 0));
+
+                int previous = parent[state * stops + last];
+                state -= pow3[last / 2];
+                last = previous;
+            }
+        }
+
+        return cost[goal * stops + best];
+    }
+}
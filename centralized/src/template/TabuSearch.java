@@ -0,0 +1,318 @@
+package template;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import logist.plan.Plan;
+import logist.simulation.Vehicle;
+import logist.task.Task;
+import logist.task.TaskSet;
+import logist.topology.Topology.City;
+
+/**
+ * A tabu search over the routes of a fleet, for task sets too large for
+ * {@link BranchAndBound}.
+ *
+ * The search starts from the cheapest insertion of every task, the longest
+ * first, and stops after a number of iterations or at a deadline. At every
+ * iteration, it moves one task to the best of all its positions in all the
+ * routes, even if the fleet gets more expensive, so that it can leave local
+ * minima. To avoid going back and forth, the solutions
+ * visited during the last tenure iterations are tabu, unless they are cheaper
+ * than the best solution found so far. Solutions are recognized by their
+ * fingerprint (see {@link Fingerprint}), which is computed for every candidate
+ * move in constant time, and looked up in a {@link TabuTable}.
+ *
+ */
+class TabuSearch {
+
+    public static final int DEFAULT_TENURE = 30;
+    public static final int DEFAULT_ITERATIONS = 2000;
+    public static final int DEFAULT_TABLE_SIZE = 1 << 16;
+
+    /** Seed of the keys of the fingerprints, which only need to be random, not secret */
+    private static final long SEED = 0x5eed;
+
+    private final List<Vehicle> vehicles;
+    private final List<Task> tasks;
+    private final long deadline;
+    private final int tenure;
+    private final int iterations;
+
+    private final Fingerprint fingerprint;
+    private final TabuTable table;
+
+    /** State of the search: the fleet, its fingerprint and its cost, and the best cost found */
+    private final List<VehicleRoute> routes = new ArrayList<VehicleRoute>();
+    private long current;
+    private double cost;
+    private double bestCost;
+    private long iteration = 0;
+
+    /**
+     * @param deadline the time at which to stop
+     * @param tenure the number of iterations during which a solution is tabu
+     * @param iterations the number of iterations after which to stop
+     * @param tableSize the number of solutions the tabu table can hold
+     */
+    public TabuSearch(List<Vehicle> vehicles, TaskSet tasks, long deadline, int tenure, int iterations, int tableSize) {
+
+        this.vehicles = vehicles;
+        this.tasks = new ArrayList<Task>(tasks);
+        this.deadline = deadline;
+        this.tenure = tenure;
+        this.iterations = iterations;
+
+        Collections.sort(this.tasks, new Comparator<Task>() {
+
+            @Override
+            public int compare(Task lhs, Task rhs) {
+                return Double.compare(rhs.pathLength(), lhs.pathLength());
+            }
+        });
+
+        this.fingerprint = new Fingerprint(vehicles.size(), this.tasks, SEED);
+        this.table = new TabuTable(tableSize);
+    }
+
+    public List<Plan> plan() {
+
+        for (Vehicle vehicle : vehicles) {
+            routes.add(new VehicleRoute(vehicle));
+        }
+
+        for (Task task : tasks) {
+            VehicleRoute.Insertion best = VehicleRoute.cheapestInsertion(routes, task);
+
+            if (best == null) {
+                throw new IllegalArgumentException("No vehicle can carry task " + task);
+            }
+            best.apply();
+        }
+
+        current = fingerprint.of(routes);
+        cost = cost(routes);
+
+        List<VehicleRoute> best = copy(routes);
+        bestCost = cost;
+
+        table.add(current, tenure);
+
+        while (iteration < iterations && System.currentTimeMillis() < deadline) {
+
+            iteration++;
+            Move move = bestMove();
+
+            if (move == null) {
+                break;
+            }
+
+            move.from.remove(move.task);
+            move.to.insert(move.task, move.pickupIndex, move.deliveryIndex);
+
+            current = move.fingerprint;
+            cost = cost(routes);
+            table.add(current, iteration + tenure);
+
+            if (cost < bestCost - 1e-9) {
+                bestCost = cost;
+                best = copy(routes);
+            }
+        }
+
+        List<Plan> plans = new ArrayList<Plan>();
+        for (VehicleRoute route : best) {
+            plans.add(route.toPlan());
+        }
+        return plans;
+    }
+
+    /**
+     * @return the cheapest move of a task that is not tabu (or that improves on
+     *         the best solution), or null if there is none
+     */
+    private Move bestMove() {
+
+        Move best = null;
+
+        for (int v = 0; v < routes.size(); v++) {
+
+            VehicleRoute from = routes.get(v);
+
+            for (Task task : from.tasks()) {
+
+                if (System.currentTimeMillis() >= deadline) {
+                    return best;
+                }
+
+                // Take the task out of its route, updating the fingerprint as its
+                // delivery then its pickup are removed
+
+                List<VehicleRoute.Stop> backup = new ArrayList<VehicleRoute.Stop>(from.stops);
+                double before = from.cost();
+                long removed = current;
+
+                for (int k = from.stops.size() - 1; k >= 0; k--) {
+                    if (from.stops.get(k).task == task) {
+                        int previous = k == 0 ? fingerprint.start(v) : fingerprint.node(from.stops.get(k - 1));
+                        int next = k + 1 < from.stops.size() ? fingerprint.node(from.stops.get(k + 1)) : -1;
+                        removed ^= fingerprint.removal(previous, fingerprint.node(from.stops.get(k)), next);
+                        from.stops.remove(k);
+                    }
+                }
+
+                double remaining = cost - before + from.cost();
+
+                for (int w = 0; w < routes.size(); w++) {
+                    best = bestInsertion(routes.get(w), w, from, task, removed, remaining, best);
+                }
+
+                from.stops.clear();
+                from.stops.addAll(backup);
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Go through all the positions of a task in a route, as in
+     * {@link VehicleRoute#cheapestInsertion(Task)}.
+     *
+     * @param removed the fingerprint of the fleet without the task
+     * @param remaining the cost of the fleet without the task
+     * @return the best of the given move and of the moves to the route
+     */
+    private Move bestInsertion(VehicleRoute route, int v, VehicleRoute from, Task task, long removed,
+            double remaining, Move best) {
+
+        int size = route.stops.size();
+        int capacity = route.vehicle.capacity();
+
+        if (task.weight > capacity) {
+            return best;
+        }
+
+        int start = fingerprint.start(v);
+        int[] nodes = fingerprint.nodes(route);
+        int pickup = fingerprint.node(new VehicleRoute.Stop(task, true));
+        int delivery = fingerprint.node(new VehicleRoute.Stop(task, false));
+
+        int[] load = new int[size + 1];
+        City[] cities = new City[size + 1];
+        cities[0] = route.start;
+
+        for (int k = 0; k < size; k++) {
+            VehicleRoute.Stop stop = route.stops.get(k);
+            load[k + 1] = load[k] + (stop.pickup ? stop.task.weight : -stop.task.weight);
+            cities[k + 1] = stop.city();
+        }
+
+        for (int i = 0; i <= size; i++) {
+
+            if (load[i] + task.weight > capacity) {
+                continue;
+            }
+
+            City before = cities[i];
+            City after = i == size ? null : cities[i + 1];
+
+            double direct = before.distanceTo(task.pickupCity) + task.pickupCity.distanceTo(task.deliveryCity)
+                    + (after == null ? 0 : task.deliveryCity.distanceTo(after) - before.distanceTo(after));
+
+            best = candidate(route, from, task, i, i, remaining + direct * route.vehicle.costPerKm(),
+                    removed ^ fingerprint.insertion(start, nodes, size, pickup, delivery, i, i), best);
+
+            if (after == null) {
+                continue;
+            }
+
+            double pickupDelta = before.distanceTo(task.pickupCity) + task.pickupCity.distanceTo(after)
+                    - before.distanceTo(after);
+
+            for (int j = i + 1; j <= size; j++) {
+
+                if (load[j] + task.weight > capacity) {
+                    break;
+                }
+
+                City previous = cities[j];
+                City next = j == size ? null : cities[j + 1];
+
+                double deliveryDelta = previous.distanceTo(task.deliveryCity)
+                        + (next == null ? 0 : task.deliveryCity.distanceTo(next) - previous.distanceTo(next));
+
+                best = candidate(route, from, task, i, j,
+                        remaining + (pickupDelta + deliveryDelta) * route.vehicle.costPerKm(),
+                        removed ^ fingerprint.insertion(start, nodes, size, pickup, delivery, i, j), best);
+            }
+        }
+        return best;
+    }
+
+    private Move candidate(VehicleRoute to, VehicleRoute from, Task task, int pickupIndex, int deliveryIndex,
+            double cost, long fingerprint, Move best) {
+
+        if (best != null && cost >= best.cost) {
+            return best;
+        }
+
+        // Putting the task back where it was is not a move. Other moves in the
+        // same route that keep the cost are mostly reorderings of stops in the
+        // same city, which would use up iterations on equivalent solutions;
+        // moves to another vehicle are kept, even at the same cost.
+        if (fingerprint == current || to == from && Math.abs(cost - this.cost) < 1e-9) {
+            return best;
+        }
+
+        // Aspiration: a tabu solution is still taken if it is the best one ever found
+        if (table.contains(fingerprint, iteration) && cost >= bestCost - 1e-9) {
+            return best;
+        }
+
+        return new Move(from, to, task, pickupIndex, deliveryIndex, cost, fingerprint);
+    }
+
+    private static double cost(List<VehicleRoute> routes) {
+        double cost = 0;
+        for (VehicleRoute route : routes) {
+            cost += route.cost();
+        }
+        return cost;
+    }
+
+    private static List<VehicleRoute> copy(List<VehicleRoute> routes) {
+        List<VehicleRoute> copy = new ArrayList<VehicleRoute>();
+        for (VehicleRoute route : routes) {
+            copy.add(new VehicleRoute(route));
+        }
+        return copy;
+    }
+
+    /**
+     * The move of a task to a position of a route, with the cost and the
+     * fingerprint of the fleet after it.
+     */
+    static class Move {
+
+        final VehicleRoute from;
+        final VehicleRoute to;
+        final Task task;
+        final int pickupIndex;
+        final int deliveryIndex;
+        final double cost;
+        final long fingerprint;
+
+        public Move(VehicleRoute from, VehicleRoute to, Task task, int pickupIndex, int deliveryIndex,
+                double cost, long fingerprint) {
+            this.from = from;
+            this.to = to;
+            this.task = task;
+            this.pickupIndex = pickupIndex;
+            this.deliveryIndex = deliveryIndex;
+            this.cost = cost;
+            this.fingerprint = fingerprint;
+        }
+    }
+}
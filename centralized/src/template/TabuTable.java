@@ -0,0 +1,80 @@
+package template;
+
+/**
+ * A fixed-size set of fingerprints (see {@link Fingerprint}), each forbidden
+ * until a given iteration of a local search.
+ *
+ * The table is open-addressed: a fingerprint is looked for in a few slots
+ * after the one given by its lowest bits. Expired fingerprints are not
+ * removed, but their slots are reused first, and when all the slots of a
+ * fingerprint are taken, the one that expires first is overwritten. Old
+ * solutions are thus forgotten when the table is full, instead of the table
+ * growing with the search.
+ */
+class TabuTable {
+
+    /** Number of slots where a fingerprint can be stored */
+    private static final int PROBES = 8;
+
+    private final long[] fingerprints;
+
+    /** Iteration until which every slot is tabu, 0 if it was never used */
+    private final long[] expiries;
+
+    private final int mask;
+
+    /**
+     * @param size the number of slots, rounded up to a power of 2
+     */
+    public TabuTable(int size) {
+
+        int slots = Integer.highestOneBit(Math.max(size - 1, PROBES - 1)) << 1;
+
+        this.fingerprints = new long[slots];
+        this.expiries = new long[slots];
+        this.mask = slots - 1;
+    }
+
+    /**
+     * Forbid a fingerprint until an iteration (excluded), or until a later one
+     * if it is already forbidden.
+     */
+    public void add(long fingerprint, long expiry) {
+
+        int first = (int) fingerprint & mask;
+        int oldest = first;
+
+        for (int p = 0; p < PROBES; p++) {
+            int slot = (first + p) & mask;
+
+            if (fingerprints[slot] == fingerprint && expiries[slot] != 0) {
+                expiries[slot] = Math.max(expiries[slot], expiry);
+                return;
+            }
+
+            if (expiries[slot] < expiries[oldest]) {
+                oldest = slot;
+            }
+        }
+
+        fingerprints[oldest] = fingerprint;
+        expiries[oldest] = expiry;
+    }
+
+    /**
+     * @return whether a fingerprint is forbidden at an iteration
+     */
+    public boolean contains(long fingerprint, long iteration) {
+
+        int first = (int) fingerprint & mask;
+
+        for (int p = 0; p < PROBES; p++) {
+            int slot = (first + p) & mask;
+
+            if (fingerprints[slot] == fingerprint && expiries[slot] > iteration) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,338 @@
+package template;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import logist.plan.Plan;
+import logist.simulation.Vehicle;
+import logist.task.Task;
+import logist.topology.Topology.City;
+
+/**
+ * The ordered list of pickups and deliveries served by one vehicle. Routes
+ * are edited with cheapest insertion and improved with task relocation; they
+ * are only turned into a logist {@link Plan} once planning is over.
+ *
+ */
+class VehicleRoute {
+
+    final Vehicle vehicle;
+    final City start;
+    final List<Stop> stops = new ArrayList<Stop>();
+
+    public VehicleRoute(Vehicle vehicle) {
+        this(vehicle, vehicle.getCurrentCity());
+    }
+
+    public VehicleRoute(Vehicle vehicle, City start) {
+        this.vehicle = vehicle;
+        this.start = start;
+    }
+
+    public VehicleRoute(VehicleRoute other) {
+        this(other.vehicle, other.start);
+        stops.addAll(other.stops);
+    }
+
+    /** The city in which the vehicle ends up after the last stop. */
+    public City end() {
+        return stops.isEmpty() ? start : stops.get(stops.size() - 1).city();
+    }
+
+    public double distance() {
+        double distance = 0;
+        City current = start;
+
+        for (Stop stop : stops) {
+            distance += current.distanceTo(stop.city());
+            current = stop.city();
+        }
+        return distance;
+    }
+
+    public double cost() {
+        return distance() * vehicle.costPerKm();
+    }
+
+    public List<Task> tasks() {
+        List<Task> tasks = new ArrayList<Task>();
+
+        for (Stop stop : stops) {
+            if (stop.pickup) {
+                tasks.add(stop.task);
+            }
+        }
+        return tasks;
+    }
+
+    /**
+     * Find the cheapest way to insert the pickup and the delivery of a task
+     * in this route without exceeding the capacity of the vehicle.
+     *
+     * @return the best insertion, or null if the task never fits.
+     */
+    public Insertion cheapestInsertion(Task task) {
+
+        int size = stops.size();
+        int capacity = vehicle.capacity();
+
+        if (task.weight > capacity) {
+            return null;
+        }
+
+        // load[k] is the load carried when leaving stop k-1 (load[0] at start)
+        int[] load = new int[size + 1];
+        for (int k = 0; k < size; k++) {
+            Stop stop = stops.get(k);
+            load[k + 1] = load[k] + (stop.pickup ? stop.task.weight : -stop.task.weight);
+        }
+
+        Insertion best = null;
+
+        for (int i = 0; i <= size; i++) {
+
+            if (load[i] + task.weight > capacity) {
+                continue;
+            }
+
+            City before = i == 0 ? start : stops.get(i - 1).city();
+            City after = i == size ? null : stops.get(i).city();
+
+            // Pickup and delivery right after each other
+            double direct = before.distanceTo(task.pickupCity) + task.pickupCity.distanceTo(task.deliveryCity)
+                    + (after == null ? 0 : task.deliveryCity.distanceTo(after) - before.distanceTo(after));
+
+            if (best == null || direct < best.distance) {
+                best = new Insertion(this, task, i, i, direct);
+            }
+
+            if (after == null) {
+                continue;
+            }
+
+            double pickupDelta = before.distanceTo(task.pickupCity) + task.pickupCity.distanceTo(after)
+                    - before.distanceTo(after);
+
+            // The delivery is inserted before stop j, the task being carried over stops i..j-1
+            for (int j = i + 1; j <= size; j++) {
+
+                if (load[j] + task.weight > capacity) {
+                    break;
+                }
+
+                City previous = stops.get(j - 1).city();
+                City next = j == size ? null : stops.get(j).city();
+
+                double deliveryDelta = previous.distanceTo(task.deliveryCity)
+                        + (next == null ? 0 : task.deliveryCity.distanceTo(next) - previous.distanceTo(next));
+
+                if (pickupDelta + deliveryDelta < best.distance) {
+                    best = new Insertion(this, task, i, j, pickupDelta + deliveryDelta);
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return the cheapest insertion of a task over all routes of a fleet, or
+     *         null if no vehicle can carry it.
+     */
+    public static Insertion cheapestInsertion(List<VehicleRoute> routes, Task task) {
+
+        Insertion best = null;
+
+        for (VehicleRoute route : routes) {
+            Insertion insertion = route.cheapestInsertion(task);
+            if (insertion != null && (best == null || insertion.cost() < best.cost())) {
+                best = insertion;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Insert a task so that its pickup ends up before the stop currently at
+     * pickupIndex, and its delivery before the stop currently at deliveryIndex.
+     */
+    public void insert(Task task, int pickupIndex, int deliveryIndex) {
+        stops.add(deliveryIndex, new Stop(task, false));
+        stops.add(pickupIndex, new Stop(task, true));
+    }
+
+    public boolean remove(Task task) {
+        boolean removed = false;
+
+        for (int k = stops.size() - 1; k >= 0; k--) {
+            if (stops.get(k).task.id == task.id) {
+                stops.remove(k);
+                removed = true;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Improve the route by removing each task in turn and re-inserting it at
+     * its cheapest position, until no relocation helps or the deadline passes.
+     *
+     * @return true if the route was improved at least once.
+     */
+    public boolean improve(long deadline) {
+
+        boolean improved = false;
+        boolean changed = true;
+
+        while (changed && System.currentTimeMillis() < deadline) {
+            changed = false;
+
+            for (Task task : tasks()) {
+                double before = distance();
+                List<Stop> backup = new ArrayList<Stop>(stops);
+
+                remove(task);
+                Insertion insertion = cheapestInsertion(task);
+
+                if (insertion != null && distance() + insertion.distance < before - 1e-9) {
+                    insertion.apply();
+                    changed = improved = true;
+                } else {
+                    stops.clear();
+                    stops.addAll(backup);
+                }
+            }
+        }
+        return improved;
+    }
+
+    /**
+     * Improve a whole fleet by moving each task to its cheapest position in
+     * any route, until no move helps or the deadline passes.
+     *
+     * @return true if the fleet was improved at least once.
+     */
+    public static boolean improve(List<VehicleRoute> routes, long deadline) {
+
+        boolean improved = false;
+        boolean changed = true;
+
+        while (changed && System.currentTimeMillis() < deadline) {
+            changed = false;
+
+            for (VehicleRoute route : routes) {
+                for (Task task : route.tasks()) {
+
+                    if (System.currentTimeMillis() >= deadline) {
+                        return improved;
+                    }
+
+                    if (relocate(routes, route, task) != null) {
+                        changed = improved = true;
+                    }
+                }
+            }
+        }
+        return improved;
+    }
+
+    /**
+     * Move a task of a route to its cheapest position in any route of the
+     * fleet, if that lowers the cost of the fleet.
+     *
+     * @return the route the task was moved to, or null if it was not moved.
+     */
+    public static VehicleRoute relocate(List<VehicleRoute> routes, VehicleRoute route, Task task) {
+
+        double before = route.cost();
+        List<Stop> backup = new ArrayList<Stop>(route.stops);
+        route.remove(task);
+
+        double saving = before - route.cost();
+        Insertion best = cheapestInsertion(routes, task);
+
+        if (best != null && best.cost() < saving - 1e-9) {
+            best.apply();
+            return best.route;
+        }
+
+        route.stops.clear();
+        route.stops.addAll(backup);
+        return null;
+    }
+
+    public Plan toPlan() {
+        City current = start;
+        Plan plan = new Plan(current);
+
+        for (Stop stop : stops) {
+            for (City city : current.pathTo(stop.city())) {
+                plan.appendMove(city);
+            }
+
+            if (stop.pickup) {
+                plan.appendPickup(stop.task);
+            } else {
+                plan.appendDelivery(stop.task);
+            }
+            current = stop.city();
+        }
+        return plan;
+    }
+
+    @Override
+    public String toString() {
+        return vehicle.name() + " " + stops;
+    }
+
+    /**
+     * A pickup or a delivery of one task.
+     */
+    static class Stop {
+
+        final Task task;
+        final boolean pickup;
+
+        public Stop(Task task, boolean pickup) {
+            this.task = task;
+            this.pickup = pickup;
+        }
+
+        public City city() {
+            return pickup ? task.pickupCity : task.deliveryCity;
+        }
+
+        @Override
+        public String toString() {
+            return (pickup ? "P" : "D") + task.id;
+        }
+    }
+
+    /**
+     * A candidate position for a task in a route, together with the extra
+     * distance (in km) it would add.
+     */
+    static class Insertion {
+
+        final VehicleRoute route;
+        final Task task;
+        final int pickupIndex;
+        final int deliveryIndex;
+        final double distance;
+
+        public Insertion(VehicleRoute route, Task task, int pickupIndex, int deliveryIndex, double distance) {
+            this.route = route;
+            this.task = task;
+            this.pickupIndex = pickupIndex;
+            this.deliveryIndex = deliveryIndex;
+            this.distance = distance;
+        }
+
+        public double cost() {
+            return distance * route.vehicle.costPerKm();
+        }
+
+        public void apply() {
+            route.insert(task, pickupIndex, deliveryIndex);
+        }
+    }
+}
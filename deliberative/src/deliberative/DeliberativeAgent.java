@@ -3,6 +3,9 @@ package deliberative;
 /* import table */
 import logist.simulation.Vehicle;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Comparator;
@@ -13,9 +16,12 @@ import java.util.Map;
 import java.util.PriorityQueue;
 import java.util.Queue;
 
+import logist.LogistSettings;
 import logist.agent.Agent;
 import logist.behavior.DeliberativeBehavior;
+import logist.config.Parsers;
 import logist.plan.Action;
+import logist.plan.ActionHandler;
 import logist.plan.Plan;
 import logist.task.Task;
 import logist.task.TaskDistribution;
@@ -30,8 +36,15 @@ import logist.topology.Topology.City;
 @SuppressWarnings("unused")
 public class DeliberativeAgent implements DeliberativeBehavior {
 	
-	enum Algorithm { BFS, ASTAR, NAIVE }
+	enum Algorithm { BFS, ASTAR, EXTERNAL, NAIVE, AUTO, DP }
 	enum Stop { FIRST, BEST }
+	enum Reservations { NONE, DEFER }
+	
+	public static final int DEFAULT_PATTERN_SIZE = 3;
+	public static final double DEFAULT_EXACT_STATES = 1E9;
+	public static final double DEFAULT_BOUNDED_STATES = 1E16;
+	public static final double DEFAULT_BOUNDED_WEIGHT = 1.5;
+	public static final long DEFAULT_PLAN_TIMEOUT = 300000;
 	
 	/* Environment */
 	Topology topology;
@@ -47,6 +60,38 @@ public class DeliberativeAgent implements DeliberativeBehavior {
 	/* Stop */
 	Stop stop;
 	
+	/* Number of tasks in the patterns of the A* heuristic (0 to only use the MST) */
+	int patternSize;
+	
+	/* Shortest paths on the roads, for the moves of the plans */
+	Roads roads;
+	
+	/* External A*: number of states kept in memory, and directory of the files (null for the default one) */
+	int memoryStates;
+	File spillDirectory;
+	
+	/* Automatic selection: estimated number of states up to which to use A*, then weighted A* */
+	double exactStates;
+	double boundedStates;
+	double boundedWeight;
+	
+	/* Dynamic programming: largest number of tasks, above which A* plans instead */
+	int dpTasks;
+	
+	/* The plan method cannot execute more than timeoutPlan milliseconds */
+	long timeoutPlan;
+	
+	/* Tasks reserved by other agents: whether to plan them last */
+	Reservations reservations;
+	ReservationBoard board;
+	
+	/* Whether the agent has already warned that it is alone on its board */
+	boolean warnedAlone;
+	
+	/* Optimal plans of previous runs (null if disabled), and the digest of the topology in their keys */
+	PlanCache cache;
+	String topologyDigest;
+	
 	@Override
 	public void setup(Topology topology, TaskDistribution td, Agent agent) {
 		this.topology = topology;
@@ -61,27 +106,294 @@ public class DeliberativeAgent implements DeliberativeBehavior {
 		// Throws IllegalArgumentException if algorithm is unknown
 		algorithm = Algorithm.valueOf(algorithmName.toUpperCase());
 		stop = Stop.valueOf(stopName.toUpperCase());
+		
+		patternSize = agent.readProperty("pattern-size", Integer.class, DEFAULT_PATTERN_SIZE);
+		roads = new Roads(topology.cities());
+		
+		memoryStates = agent.readProperty("memory-states", Integer.class, ExternalSearch.DEFAULT_MEMORY_STATES);
+		String directoryName = agent.readProperty("spill-directory", String.class, "");
+		spillDirectory = directoryName.isEmpty() ? null : new File(directoryName);
+		
+		exactStates = agent.readProperty("exact-states", Double.class, DEFAULT_EXACT_STATES);
+		boundedStates = agent.readProperty("bounded-states", Double.class, DEFAULT_BOUNDED_STATES);
+		boundedWeight = agent.readProperty("bounded-weight", Double.class, DEFAULT_BOUNDED_WEIGHT);
+		
+		dpTasks = agent.readProperty("dp-tasks", Integer.class, DynamicPlanner.DEFAULT_MAX_TASKS);
+		
+		try {
+			LogistSettings settings = Parsers.parseSettings("config/settings_default.xml");
+			timeoutPlan = settings.get(LogistSettings.TimeoutKey.PLAN);
+		} catch (Exception e) {
+			timeoutPlan = DEFAULT_PLAN_TIMEOUT;
+		}
+		
+		String reservationsName = agent.readProperty("reservations", String.class, "NONE");
+		reservations = Reservations.valueOf(reservationsName.toUpperCase());
+		board = ReservationBoard.of(td);
+		
+		if (reservations == Reservations.DEFER) {
+			board.join(agent.id());
+		}
+		
+		String cacheName = agent.readProperty("plan-cache", String.class, "");
+		
+		if (!cacheName.isEmpty()) {
+			int memoryPlans = agent.readProperty("plan-cache-memory", Integer.class, PlanCache.DEFAULT_MEMORY_PLANS);
+			int diskPlans = agent.readProperty("plan-cache-size", Integer.class, PlanCache.DEFAULT_DISK_PLANS);
+			
+			try {
+				cache = PlanCache.of(new File(cacheName), memoryPlans, diskPlans);
+			} catch (IOException e) {
+				throw new UncheckedIOException("The plan cache could not use " + cacheName + ".", e);
+			}
+			
+			topologyDigest = PlanCache.digest(topology);
+		}
 	}
 	
 	@Override
 	public Plan plan(Vehicle vehicle, TaskSet tasks) {
 		Plan plan;
-
-		// Compute the plan with the selected algorithm.
+		
+		PlanEvent event = new PlanEvent();
+		event.begin();
+		
+		// Automatic selection keeps some of the time budget to fall back on a faster planner
+		long deadline = System.currentTimeMillis() + timeoutPlan * 9 / 10;
+		
+		// Tasks that another agent reaches first will most likely be gone when we
+		// arrive, which cancels the plan. They are planned after all the others, so
+		// that the plan is cancelled as late as possible.
+		TaskSet deferred = TaskSet.noneOf(tasks);
+		
+		// All the agents are set up before the first plan, so they have all joined
+		// by now. Alone, there is nothing to defer to and the tasks are planned as usual.
+		boolean shared = board.participants() > 1;
+		
+		if (reservations == Reservations.DEFER && !shared && !warnedAlone) {
+			System.err.println(agent.name() + " is alone on its reservation board and does not defer tasks: the agents only "
+					+ "share it if the deliberative classes are on the class path of the JVM (see config/agents.xml).");
+			warnedAlone = true;
+		}
+		
+		if (reservations == Reservations.DEFER && shared && algorithm != Algorithm.NAIVE) {
+			for (Task task : tasks) {
+				double eta = ReservationBoard.eta(vehicle, vehicle.getCurrentCity().distanceTo(task.pickupCity));
+				
+				if (board.contested(task, agent.id(), eta)) {
+					deferred.add(task);
+				}
+			}
+		}
+		
+		if (deferred.isEmpty()) {
+			plan = plan(vehicle, new State(vehicle, tasks), deadline, event);
+		} else {
+			TaskSet own = tasks.clone();
+			own.removeAll(deferred);
+			
+			Plan first = plan(vehicle, new State(vehicle, own), deadline, event);
+			City end = lastCity(vehicle.getCurrentCity(), first);
+			Plan second = plan(vehicle, new State(end, deferred, TaskSet.noneOf(tasks), vehicle.capacity()), deadline, event);
+			
+			plan = new Plan(vehicle.getCurrentCity());
+			
+			for (Action action : first) {
+				plan.append(action);
+			}
+			
+			for (Action action : second) {
+				plan.append(action);
+			}
+		}
+		
+		if (reservations == Reservations.DEFER) {
+			board.release(agent.id());
+			board.publish(agent.id(), vehicle, plan);
+		}
+		
+		if (event.shouldCommit()) {
+			event.agent = agent.name();
+			event.vehicle = vehicle.name();
+			event.algorithm = algorithm.name();
+			event.tasks = tasks.size() + vehicle.getCurrentTasks().size();
+			event.cost = plan.totalDistance() * vehicle.costPerKm();
+			event.commit();
+		}
+		
+		return plan;
+	}
+	
+	/**
+	 * Compute the plan from a state with the selected algorithm, or find it in
+	 * the plan cache. Only optimal plans are cached: the plans of the other
+	 * algorithms and stops depend on the time budget or are only a first guess.
+	 * 
+	 * @param deadline the time by which an automatically selected planner must be done
+	 * @param event the event of the call to plan, which counts the expansions
+	 */
+	private Plan plan(Vehicle vehicle, State initialState, long deadline, PlanEvent event) {
+		
+		Logger logger = new Logger(agent.name());
+		Plan plan;
+		String key = null;
+		
+		if (cache != null && (algorithm == Algorithm.DP || stop == Stop.BEST
+				&& (algorithm == Algorithm.ASTAR || algorithm == Algorithm.BFS || algorithm == Algorithm.EXTERNAL))) {
+			
+			// The heuristic decides between plans of the same cost, so it is part of the key
+			key = PlanCache.key(topologyDigest, algorithm + "/" + patternSize, initialState, vehicle);
+			plan = cache.get(key, topology.cities(), initialState);
+			
+			if (plan != null) {
+				logger.initialize("Cache");
+				logger.logResults(plan, vehicle);
+				return plan;
+			}
+		}
+		
 		switch (algorithm) {
 		case ASTAR: 
 		case BFS:
-			plan = plan(vehicle, tasks, stop, new Logger());
+			plan = plan(vehicle, initialState, algorithm, stop, 1, Long.MAX_VALUE, logger);
+			break;
+		case EXTERNAL:
+			plan = externalPlan(vehicle, initialState, logger);
 			break;
 		case NAIVE:
-			plan = naivePlan(vehicle, tasks, new Logger());
+			plan = naivePlan(vehicle, initialState.availableTasks, logger);
+			break;
+		case AUTO:
+			plan = autoPlan(vehicle, initialState, deadline, logger);
+			break;
+		case DP:
+			plan = dynamicPlan(vehicle, initialState, logger);
 			break;
 		default:
 			throw new AssertionError("Should not happen.");
-		}		
+		}
+		
+		event.expansions += logger.steps();
+		
+		if (key != null) {
+			cache.put(key, initialState, plan);
+		}
+		
 		return plan;
 	}
 	
+	/**
+	 * @return the city where a plan starting in the given city ends
+	 */
+	private static City lastCity(City start, Plan plan) {
+		
+		City city = start;
+		
+		for (Action action : plan) {
+			
+			final City from = city;
+			
+			city = action.accept(new ActionHandler<City>() {
+				
+				@Override
+				public City moveTo(City city) {
+					return city;
+				}
+				
+				@Override
+				public City pickup(Task task) {
+					return from;
+				}
+				
+				@Override
+				public City deliver(Task task) {
+					return from;
+				}
+			});
+		}
+		
+		return city;
+	}
+	
+	/**
+	 * Select the planner from the estimated number of states: A* if the search
+	 * fits in the time budget, weighted A* (at most boundedWeight times the
+	 * optimal cost) if it is larger, and cheapest insertion otherwise. A search
+	 * that reaches half of the budget gives up, and insertion takes over.
+	 */
+	private Plan autoPlan(Vehicle vehicle, State initialState, long deadline, Logger logger) {
+		
+		double states = estimateStates(initialState, vehicle.capacity());
+		long now = System.currentTimeMillis();
+		long searchDeadline = now + (deadline - now) / 2;
+		Plan plan = null;
+		
+		if (states <= exactStates) {
+			plan = plan(vehicle, initialState, Algorithm.ASTAR, Stop.BEST, 1, searchDeadline, logger);
+		} else if (states <= boundedStates) {
+			plan = plan(vehicle, initialState, Algorithm.ASTAR, Stop.FIRST, boundedWeight, searchDeadline, logger);
+		}
+		
+		if (plan == null) {
+			logger.initialize("Insertion");
+			plan = new InsertionPlanner(initialState, vehicle.capacity(), roads, logger).plan(deadline);
+			logger.logResults(plan, vehicle);
+		}
+		
+		return plan;
+	}
+	
+	/**
+	 * Dynamic programming over the statuses of the tasks (see DynamicPlanner),
+	 * or A* if there are too many tasks for its tables. Both are optimal, so
+	 * that the plan can be cached whatever the stop.
+	 */
+	private Plan dynamicPlan(Vehicle vehicle, State initialState, Logger logger) {
+		
+		if (DynamicPlanner.taskCount(initialState) > dpTasks) {
+			return plan(vehicle, initialState, Algorithm.ASTAR, Stop.BEST, 1, Long.MAX_VALUE, logger);
+		}
+		
+		logger.initialize("Dynamic Programming");
+		Plan plan = new DynamicPlanner(initialState, vehicle.capacity(), roads, logger).plan();
+		logger.logResults(plan, vehicle);
+		
+		return plan;
+	}
+	
+	/**
+	 * An upper bound of the number of states reachable from a state: the number
+	 * of cities, times the number of statuses of the tasks (available, transported
+	 * or delivered) such that the transported tasks fit in the vehicle.
+	 */
+	private double estimateStates(State state, int capacity) {
+		
+		// ways[w]: number of statuses of the tasks seen so far, with weight w transported
+		double[] ways = new double[capacity + 1];
+		ways[0] = 1;
+		
+		for (Task task : state.availableTasks) {
+			for (int w = capacity; w >= 0; w--) {
+				double transported = w >= task.weight ? ways[w - task.weight] : 0;
+				ways[w] = 2 * ways[w] + transported;
+			}
+		}
+		
+		for (Task task : state.transportedTasks) {
+			for (int w = capacity; w >= 0; w--) {
+				double transported = w >= task.weight ? ways[w - task.weight] : 0;
+				ways[w] = ways[w] + transported;
+			}
+		}
+		
+		double statuses = 0;
+		for (double count : ways) {
+			statuses += count;
+		}
+		
+		return statuses * topology.size();
+	}
+	
 	private Plan naivePlan(Vehicle vehicle, TaskSet tasks, Logger logger) {
 		
 		City current = vehicle.getCurrentCity();
@@ -91,13 +403,13 @@ public class DeliberativeAgent implements DeliberativeBehavior {
 
 		for (Task task : tasks) {
 			// move: current city => pickup location
-			for (City city : current.pathTo(task.pickupCity))
+			for (City city : roads.path(current, task.pickupCity))
 				plan.appendMove(city);
 
 			plan.appendPickup(task);
 
 			// move: pickup location => delivery location
-			for (City city : task.path()) {
+			for (City city : roads.path(task.pickupCity, task.deliveryCity)) {
 				plan.appendMove(city);
 				logger.increment();
 			}
@@ -113,9 +425,45 @@ public class DeliberativeAgent implements DeliberativeBehavior {
 		return plan;
 	}
 	
-	private Plan plan(Vehicle vehicle, TaskSet tasks, Stop stop, Logger logger) {
+	/**
+	 * A* with bounded memory, which spills the open and closed lists to disk
+	 * (see ExternalSearch).
+	 */
+	private Plan externalPlan(Vehicle vehicle, State initialState, Logger logger) {
+		
+		PatternDatabase patterns = null;
+		
+		logger.initialize("External A-Star (" + stop + ")");
+		
+		if (patternSize > 0) {
+			patterns = new PatternDatabase(initialState.currentCity, initialState.availableTasks, initialState.transportedTasks, patternSize);
+		}
+		
+		StateCodec codec = new StateCodec(topology.cities(), initialState);
+		ExternalSearch search = new ExternalSearch(codec, vehicle, patterns, stop, memoryStates, spillDirectory, logger);
 		
-		State initialState = new State(vehicle, tasks);
+		Plan plan;
+		
+		try {
+			plan = search.plan(initialState);
+		} catch (IOException e) {
+			throw new UncheckedIOException("The external search could not use its files.", e);
+		}
+		
+		logger.logResults(plan, vehicle);
+		
+		return plan;
+	}
+	
+	/**
+	 * A* or BFS from a state.
+	 * 
+	 * @param weight the factor of the heuristic of A*: above 1, the search finds a plan
+	 *            faster, which costs at most weight times the optimal cost
+	 * @param deadline the time at which to give up if no plan was found
+	 * @return the plan, or null if the deadline was reached first
+	 */
+	private Plan plan(Vehicle vehicle, State initialState, Algorithm algorithm, Stop stop, double weight, long deadline, Logger logger) {
 		
 		Map<State, State> parents = new HashMap<State, State>();
 		Map<State, Action> causes = new HashMap<State, Action>();
@@ -125,14 +473,19 @@ public class DeliberativeAgent implements DeliberativeBehavior {
 		
 		final Map<State, Double> f;
 		Queue<State> queue;
+		PatternDatabase patterns = null;
 		
 		switch (algorithm) {
 		case ASTAR:
 			
-			logger.initialize("A-Star (" + stop + ")");
+			logger.initialize(weight == 1 ? "A-Star (" + stop + ")" : "Weighted A-Star (" + weight + ", " + stop + ")");
+			
+			if (patternSize > 0) {
+				patterns = new PatternDatabase(initialState.currentCity, initialState.availableTasks, initialState.transportedTasks, patternSize);
+			}
 			
 			f = new HashMap<State, Double>();
-			f.put(initialState, initialState.heuristic(vehicle));
+			f.put(initialState, weight * initialState.heuristic(vehicle, patterns));
 			
 			queue = new PriorityQueue<State>(new Comparator<State>() {
 				
@@ -159,12 +512,22 @@ public class DeliberativeAgent implements DeliberativeBehavior {
 		Double bestCost = Double.POSITIVE_INFINITY;
 		State goal = null;
 		
+		long expansions = 0;
+		
 		do {
 			State state = queue.poll();
 			Double cost = costs.get(state);
 			
 			logger.increment();
 			
+			// Checking the time at every expansion would be too slow
+			if (++expansions % 1024 == 0 && System.currentTimeMillis() > deadline) {
+				if (goal == null) {
+					return null;
+				}
+				break;
+			}
+			
 			// If the state is a final state, and its cost is lower than
 			// any previous plan so far, we mark it as new goal state.
 			if (state.isFinal() && costs.get(state) < bestCost) {
@@ -207,7 +570,16 @@ public class DeliberativeAgent implements DeliberativeBehavior {
 				causes.put(child, action);
 				
 				if (algorithm == Algorithm.ASTAR) {
-					f.put(child, childCost + child.heuristic(vehicle));
+					
+					// The heuristic never overestimates, so a child whose estimate exceeds
+					// the best plan found so far cannot lead to a better plan.
+					Double estimate = childCost + weight * child.heuristic(vehicle, patterns);
+					
+					if (estimate > bestCost) {
+						continue;
+					}
+					
+					f.put(child, estimate);
 				}
 				
 				// Enqueue the child
@@ -219,7 +591,7 @@ public class DeliberativeAgent implements DeliberativeBehavior {
 		// We can simply reconstruct the list of actions that led to this state by iterating
 		// over all the parents of this state
 		
-		Plan plan = reconstructPlan(goal, vehicle.getCurrentCity(), causes, parents);
+		Plan plan = reconstructPlan(goal, initialState.currentCity, causes, parents);
 				
 		logger.logResults(plan, vehicle);
 		
@@ -233,11 +605,10 @@ public class DeliberativeAgent implements DeliberativeBehavior {
 		LinkedList<Action> actions = new LinkedList<Action>(); 
 		State state = goal;
 		
-		do {
-			Action cause = causes.get(state);
-			actions.addFirst(cause);
+		while (causes.get(state) != null) {
+			actions.addFirst(causes.get(state));
 			state = parents.get(state);
-		} while (causes.get(state) != null);
+		}
 		
 		for (Action action: actions) {
 			plan.append(action);
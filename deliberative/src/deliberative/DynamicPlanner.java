@@ -0,0 +1,331 @@
+package deliberative;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import logist.plan.Plan;
+import logist.task.Task;
+import logist.topology.Topology.City;
+
+/**
+ * An exact planner for a few tasks, by dynamic programming over the statuses of
+ * the tasks, in the style of Held-Karp.
+ *
+ * The plan is a sequence of events, each the pickup or the delivery of a task,
+ * with a shortest path between them. The status of the tasks is a number in base
+ * 3, whose digit i is 0 if task i is still to pick up, 1 if it is in the vehicle
+ * and 2 if it is delivered. cost[s * events + e] is the lowest distance from the
+ * start to status s, with event e last.
+ *
+ * Every event adds 1 to the sum of the digits, so statuses are computed layer by
+ * layer, by that sum, from the layer before. The statuses of a layer do not depend
+ * on each other, and are computed in parallel. The tables have 3^k * 2k entries for
+ * k tasks, which limits the planner to about 12 tasks (100 MB).
+ */
+class DynamicPlanner {
+
+	public static final int DEFAULT_MAX_TASKS = 12;
+
+	/** Statuses computed by a single fork-join task */
+	private static final int CHUNK = 1024;
+
+	/** Shared by all the plans, as starting threads for every plan costs more than small tables */
+	private static final ForkJoinPool POOL = new ForkJoinPool();
+
+	private final State initialState;
+	private final int capacity;
+	private final Roads roads;
+	private final Logger logger;
+
+	/** Tasks in the vehicle first, then the tasks to pick up */
+	private final Task[] tasks;
+	private final int transported;
+
+	/** Powers of 3, and number of statuses */
+	private final int[] powers;
+	private final int statusCount;
+
+	/** Event 2i is the pickup of task i, event 2i + 1 its delivery */
+	private final int events;
+	private final City[] eventCity;
+
+	/** Distance from the start to every event, and between every pair of events */
+	private final double[] startDistance;
+	private final double[][] distance;
+
+	/** Load of the vehicle in every status */
+	private final int[] load;
+
+	private final double[] cost;
+
+	/**
+	 * @param initialState the state to plan from
+	 * @param capacity the capacity of the vehicle
+	 * @param roads the paths between cities
+	 */
+	public DynamicPlanner(State initialState, int capacity, Roads roads, Logger logger) {
+
+		this.initialState = initialState;
+		this.capacity = capacity;
+		this.roads = roads;
+		this.logger = logger;
+
+		List<Task> list = new ArrayList<Task>(initialState.transportedTasks);
+		this.transported = list.size();
+		list.addAll(initialState.availableTasks);
+		this.tasks = list.toArray(new Task[list.size()]);
+
+		int k = tasks.length;
+
+		this.powers = new int[k + 1];
+		powers[0] = 1;
+		for (int i = 0; i < k; i++) {
+			powers[i + 1] = powers[i] * 3;
+		}
+		this.statusCount = powers[k];
+
+		this.events = 2 * k;
+		this.eventCity = new City[events];
+
+		for (int i = 0; i < k; i++) {
+			eventCity[2 * i] = tasks[i].pickupCity;
+			eventCity[2 * i + 1] = tasks[i].deliveryCity;
+		}
+
+		this.startDistance = new double[events];
+		this.distance = new double[events][events];
+
+		for (int e = 0; e < events; e++) {
+			startDistance[e] = initialState.currentCity.distanceTo(eventCity[e]);
+
+			for (int f = 0; f < events; f++) {
+				distance[e][f] = eventCity[e].distanceTo(eventCity[f]);
+			}
+		}
+
+		this.load = new int[statusCount];
+		this.cost = new double[statusCount * events];
+		Arrays.fill(cost, Double.POSITIVE_INFINITY);
+	}
+
+	/**
+	 * @return the number of tasks the planner would handle from a state
+	 */
+	public static int taskCount(State state) {
+		return state.transportedTasks.size() + state.availableTasks.size();
+	}
+
+	public Plan plan() {
+
+		int k = tasks.length;
+
+		int initial = 0;
+		int goal = 0;
+
+		for (int i = 0; i < k; i++) {
+			initial += i < transported ? powers[i] : 0;
+			goal += 2 * powers[i];
+		}
+
+		if (k == 0) {
+			return new Plan(initialState.currentCity);
+		}
+
+		// Load and digit sum of every status, from the status without its highest
+		// digit. Statuses that are unreachable (a task in the vehicle back to pick
+		// up) or too heavy are left out of the layers.
+
+		int[] sums = new int[statusCount];
+		int[] layerSizes = new int[events + 1];
+		int highest = 0;
+
+		for (int s = 1; s < statusCount; s++) {
+
+			if (s == powers[highest + 1]) {
+				highest++;
+			}
+
+			int digit = s / powers[highest];
+			int rest = s - digit * powers[highest];
+
+			load[s] = load[rest] + (digit == 1 ? tasks[highest].weight : 0);
+			sums[s] = sums[rest] + digit;
+		}
+
+		int[][] layers = new int[events + 1][];
+
+		for (int pass = 0; pass < 2; pass++) {
+			for (int s = 0; s < statusCount; s++) {
+
+				if (!reachable(s)) {
+					continue;
+				}
+
+				if (pass == 0) {
+					layerSizes[sums[s]]++;
+				} else {
+					layers[sums[s]][--layerSizes[sums[s]]] = s;
+				}
+			}
+
+			if (pass == 0) {
+				for (int l = 0; l <= events; l++) {
+					layers[l] = new int[layerSizes[l]];
+				}
+			}
+		}
+
+		// Fill the layers after the initial status, in parallel
+
+		for (int l = sums[initial] + 1; l <= events; l++) {
+			POOL.invoke(new Layer(layers[l], 0, layers[l].length, initial));
+			logger.increment(layers[l].length);
+		}
+
+		// Best last event of the goal, then the event before every event
+
+		int last = -1;
+
+		for (int e = 0; e < events; e++) {
+			if (cost[goal * events + e] < Double.POSITIVE_INFINITY
+					&& (last < 0 || cost[goal * events + e] < cost[goal * events + last])) {
+				last = e;
+			}
+		}
+
+		if (last < 0) {
+			throw new IllegalArgumentException("The tasks do not fit in the vehicle.");
+		}
+
+		int[] sequence = new int[events - sums[initial]];
+		int status = goal;
+
+		for (int n = sequence.length - 1; n >= 0; n--) {
+
+			sequence[n] = last;
+
+			int previous = status - powers[last / 2];
+			double target = cost[status * events + last];
+
+			if (previous == initial) {
+				break;
+			}
+
+			for (int e = 0; e < events; e++) {
+				double through = cost[previous * events + e] + distance[e][last];
+
+				if (through == target) {
+					last = e;
+					break;
+				}
+			}
+
+			status = previous;
+		}
+
+		return toPlan(sequence);
+	}
+
+	/**
+	 * @return whether a status can be reached from the initial state, within the capacity
+	 */
+	private boolean reachable(int s) {
+
+		for (int i = 0; i < transported; i++) {
+			if ((s / powers[i]) % 3 == 0) {
+				return false;
+			}
+		}
+
+		return load[s] <= capacity;
+	}
+
+	/**
+	 * Compute the cost of every last event of some statuses of a layer.
+	 */
+	class Layer extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int[] statuses;
+		private final int from;
+		private final int to;
+		private final int initial;
+
+		Layer(int[] statuses, int from, int to, int initial) {
+			this.statuses = statuses;
+			this.from = from;
+			this.to = to;
+			this.initial = initial;
+		}
+
+		@Override
+		protected void compute() {
+
+			if (to - from > CHUNK) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new Layer(statuses, from, middle, initial), new Layer(statuses, middle, to, initial));
+				return;
+			}
+
+			for (int n = from; n < to; n++) {
+
+				int s = statuses[n];
+
+				for (int e = 0; e < events; e++) {
+
+					int i = e / 2;
+					int digit = (s / powers[i]) % 3;
+					double best = Double.POSITIVE_INFINITY;
+
+					// Event e is last if it set the digit of its task: a pickup leaves
+					// 1, a delivery 2. Tasks in the vehicle were never picked up.
+
+					if (digit == (e % 2 == 0 ? 1 : 2) && !(e % 2 == 0 && i < transported)) {
+
+						int previous = s - powers[i];
+
+						if (previous == initial) {
+							best = startDistance[e];
+						} else {
+							for (int f = 0; f < events; f++) {
+								best = Math.min(best, cost[previous * events + f] + distance[f][e]);
+							}
+						}
+					}
+
+					cost[s * events + e] = best;
+				}
+			}
+		}
+	}
+
+	private Plan toPlan(int[] sequence) {
+
+		City current = initialState.currentCity;
+		Plan plan = new Plan(current);
+
+		for (int e : sequence) {
+
+			Task task = tasks[e / 2];
+			City city = e % 2 == 0 ? task.pickupCity : task.deliveryCity;
+
+			for (City step : roads.path(current, city)) {
+				plan.appendMove(step);
+			}
+
+			if (e % 2 == 0) {
+				plan.appendPickup(task);
+			} else {
+				plan.appendDelivery(task);
+			}
+
+			current = city;
+		}
+
+		return plan;
+	}
+}
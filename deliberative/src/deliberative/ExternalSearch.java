@@ -0,0 +1,753 @@
+package deliberative;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import logist.plan.Action;
+import logist.plan.Plan;
+import logist.simulation.Vehicle;
+import logist.topology.Topology.City;
+
+/**
+ * A* search whose memory use is bounded, for plans with more states than fit
+ * in the heap. It explores the same states as the in-memory A* of
+ * DeliberativeAgent, but:
+ *
+ *  - The open list keeps at most memoryStates states in memory. When it grows
+ *    larger, its worst half is written to a cold bucket on disk, sorted by f,
+ *    and read back when its best state is better than the best one in memory.
+ *  - The closed list keeps at most memoryStates states in memory, then writes
+ *    them to a run on disk, sorted by key. Small runs are merged into larger
+ *    ones, which are memory-mapped.
+ *  - Duplicates are detected late: states are taken from the open list in
+ *    batches of equal f, and every batch is sorted by key and merged with the
+ *    runs of the closed list, dropping the states already expanded at a lower
+ *    cost. Batches do not go beyond the best f, as expanding states of higher
+ *    f before their better siblings would lose the order of A*.
+ *
+ * States are stored as keys (see StateCodec), with their cost and the key of
+ * their parent, from which the plan is rebuilt at the end. The files are
+ * deleted when the search ends.
+ */
+class ExternalSearch {
+
+	public static final int DEFAULT_MEMORY_STATES = 1000000;
+
+	/** Largest number of states taken from the open list at once */
+	private static final int BATCH = 4096;
+
+	/** Above this number of small runs, they are merged into larger ones */
+	private static final int MAX_SMALL_RUNS = 16;
+
+	/** Largest run file, so that every run can be mapped at once */
+	private static final long MAX_RUN_BYTES = 1L << 30;
+
+	private final StateCodec codec;
+	private final Vehicle vehicle;
+	private final PatternDatabase patterns;
+	private final DeliberativeAgent.Stop stop;
+	private final int memoryStates;
+	private final File spillDirectory;
+	private final Logger logger;
+
+	private final int words;
+
+	/** Size of a closed record: key, cost, whether it has a parent and parent key */
+	private final int recordSize;
+
+	private File directory;
+	private int files = 0;
+
+	/** The hot part of the open list, and the cold buckets on disk */
+	private PriorityQueue<Node> open;
+	private List<Bucket> buckets = new ArrayList<Bucket>();
+
+	/** The recently expanded states, and the runs on disk */
+	private Map<Key, Node> closed = new HashMap<Key, Node>();
+	private List<Run> smallRuns = new ArrayList<Run>();
+	private List<Run> largeRuns = new ArrayList<Run>();
+
+	/** Lowest cost of the recently generated states, to skip obvious duplicates early */
+	private Map<Key, Double> generated = new HashMap<Key, Double>();
+
+	/**
+	 * @param codec the codec of the states of the plan
+	 * @param vehicle the vehicle to plan for
+	 * @param patterns the pattern database of the heuristic, or null
+	 * @param stop whether to stop at the first plan found, or at the best one
+	 * @param memoryStates the number of states of the open and closed lists to keep in memory
+	 * @param spillDirectory the directory of the files, or null for the default temporary directory
+	 */
+	public ExternalSearch(StateCodec codec, Vehicle vehicle, PatternDatabase patterns, DeliberativeAgent.Stop stop,
+			int memoryStates, File spillDirectory, Logger logger) {
+		this.codec = codec;
+		this.vehicle = vehicle;
+		this.patterns = patterns;
+		this.stop = stop;
+		this.memoryStates = Math.max(2, memoryStates);
+		this.spillDirectory = spillDirectory;
+		this.logger = logger;
+		this.words = codec.words;
+		this.recordSize = (2 * words + 2) * 8;
+	}
+
+	public Plan plan(State initialState) throws IOException {
+
+		directory = spillDirectory == null
+				? Files.createTempDirectory("astar").toFile()
+				: Files.createTempDirectory(spillDirectory.toPath(), "astar").toFile();
+
+		try {
+			Node goal = search(initialState);
+			return reconstructPlan(initialState.currentCity, goal);
+		} finally {
+			close();
+		}
+	}
+
+	private Node search(State initialState) throws IOException {
+
+		open = new PriorityQueue<Node>(new Comparator<Node>() {
+
+			@Override
+			public int compare(Node lhs, Node rhs) {
+				return Double.compare(lhs.f, rhs.f);
+			}
+		});
+
+		long[] initialKey = codec.encode(initialState);
+		open.add(new Node(initialKey, 0.0, initialState.heuristic(vehicle, patterns), null));
+		generated.put(new Key(initialKey), 0.0);
+
+		double bestCost = Double.POSITIVE_INFINITY;
+		Node goal = null;
+
+		while (!open.isEmpty() || !buckets.isEmpty()) {
+
+			// Bring back the cold bucket with the best state, if it is better than the hot ones
+			Bucket bucket = buckets.isEmpty() ? null : Collections.min(buckets);
+
+			if (bucket != null && (open.isEmpty() || bucket.minF < open.peek().f)) {
+				buckets.remove(bucket);
+				bucket.load(open, bestCost);
+				continue;
+			}
+
+			// Take the next batch, and drop the states that were already expanded at a lower cost
+			List<Node> batch = new ArrayList<Node>();
+			double f = open.peek().f;
+
+			while (!open.isEmpty() && batch.size() < BATCH && open.peek().f <= f) {
+
+				Node node = open.poll();
+				Double best = generated.get(new Key(node.key));
+
+				if (node.f <= bestCost && (best == null || node.g <= best)) {
+					batch.add(node);
+				}
+			}
+
+			for (Node node : removeDuplicates(batch)) {
+
+				logger.increment();
+
+				State state = codec.decode(node.key);
+
+				// If the state is a final state, and its cost is lower than
+				// any previous plan so far, we mark it as new goal state.
+				if (state.isFinal() && node.g < bestCost) {
+					bestCost = node.g;
+					goal = node;
+
+					if (stop == DeliberativeAgent.Stop.FIRST) {
+						return goal;
+					}
+				}
+
+				for (Tuple<State, Action> tuple : state.nextStates()) {
+
+					State child = tuple.x;
+					double childCost = node.g + state.currentCity.distanceTo(child.currentCity) * vehicle.costPerKm();
+
+					if (childCost > bestCost) {
+						continue;
+					}
+
+					long[] childKey = codec.encode(child);
+					Key key = new Key(childKey);
+					Double best = generated.get(key);
+
+					if (best != null && childCost >= best) {
+						continue;
+					}
+
+					// The heuristic never overestimates, so a child whose estimate exceeds
+					// the best plan found so far cannot lead to a better plan.
+					double estimate = childCost + child.heuristic(vehicle, patterns);
+
+					if (estimate > bestCost) {
+						continue;
+					}
+
+					generated.put(key, childCost);
+					open.add(new Node(childKey, childCost, estimate, node.key));
+				}
+			}
+
+			// Keep the memory bounded
+
+			if (closed.size() > memoryStates) {
+				flushClosed();
+			}
+
+			if (open.size() > memoryStates) {
+				spillOpen();
+			}
+
+			if (generated.size() > 2 * memoryStates) {
+				generated.clear();
+			}
+		}
+
+		return goal;
+	}
+
+	/**
+	 * Delayed duplicate detection: sort a batch by key, and merge it with the closed
+	 * list, in memory and in every run.
+	 *
+	 * @return the states of the batch that were not expanded before at a lower cost, in
+	 *         the order of the batch, after adding them to the closed list
+	 */
+	private List<Node> removeDuplicates(List<Node> batch) {
+
+		List<Node> sorted = new ArrayList<Node>(batch);
+		Collections.sort(sorted, new Comparator<Node>() {
+
+			@Override
+			public int compare(Node lhs, Node rhs) {
+				int compare = compareKeys(lhs.key, rhs.key);
+				return compare != 0 ? compare : Double.compare(lhs.g, rhs.g);
+			}
+		});
+
+		boolean[] duplicate = new boolean[sorted.size()];
+
+		List<Run> runs = new ArrayList<Run>(largeRuns);
+		runs.addAll(smallRuns);
+
+		for (Run run : runs) {
+
+			int cursor = 0;
+
+			for (int i = 0; i < sorted.size(); i++) {
+
+				Node node = sorted.get(i);
+				cursor = run.lowerBound(node.key, cursor);
+
+				if (cursor < run.count && run.compareKey(cursor, node.key) == 0 && run.cost(cursor) <= node.g) {
+					duplicate[i] = true;
+				}
+			}
+		}
+
+		List<Node> expanded = new ArrayList<Node>();
+
+		for (int i = 0; i < sorted.size(); i++) {
+
+			Key key = new Key(sorted.get(i).key);
+			Node previous = closed.get(key);
+
+			// Within the batch, the copy with the lowest cost comes first
+			if (!duplicate[i] && (previous == null || previous.g > sorted.get(i).g)) {
+				closed.put(key, sorted.get(i));
+				expanded.add(sorted.get(i));
+			}
+		}
+
+		// Expand in the order of f, as taken from the open list
+		Collections.sort(expanded, open.comparator());
+
+		return expanded;
+	}
+
+	/**
+	 * Write the closed states in memory to a new small run, and merge the small runs
+	 * into large ones if there are too many.
+	 */
+	private void flushClosed() throws IOException {
+
+		List<Node> nodes = new ArrayList<Node>(closed.values());
+		closed.clear();
+
+		Collections.sort(nodes, new Comparator<Node>() {
+
+			@Override
+			public int compare(Node lhs, Node rhs) {
+				return compareKeys(lhs.key, rhs.key);
+			}
+		});
+
+		smallRuns.addAll(writeRuns(nodes.iterator()));
+
+		if (smallRuns.size() > MAX_SMALL_RUNS) {
+			largeRuns.addAll(writeRuns(merge(smallRuns)));
+
+			for (Run run : smallRuns) {
+				run.delete();
+			}
+			smallRuns.clear();
+		}
+	}
+
+	/**
+	 * @return the records of several runs in the order of their keys, keeping only
+	 *         the one with the lowest cost of every key
+	 */
+	private Iterator<Node> merge(final List<Run> runs) {
+
+		final PriorityQueue<int[]> cursors = new PriorityQueue<int[]>(new Comparator<int[]>() {
+
+			@Override
+			public int compare(int[] lhs, int[] rhs) {
+				return compareRecords(runs.get(lhs[0]), lhs[1], runs.get(rhs[0]), rhs[1]);
+			}
+		});
+
+		for (int r = 0; r < runs.size(); r++) {
+			if (runs.get(r).count > 0) {
+				cursors.add(new int[] { r, 0 });
+			}
+		}
+
+		return new Iterator<Node>() {
+
+			private long[] last = null;
+
+			@Override
+			public boolean hasNext() {
+				skip();
+				return !cursors.isEmpty();
+			}
+
+			@Override
+			public Node next() {
+				skip();
+				int[] cursor = cursors.poll();
+				Node node = runs.get(cursor[0]).node(cursor[1]);
+				advance(cursor);
+				last = node.key;
+				return node;
+			}
+
+			/** Skip the records of the last key, which have a higher cost */
+			private void skip() {
+				while (last != null && !cursors.isEmpty()
+						&& runs.get(cursors.peek()[0]).compareKey(cursors.peek()[1], last) == 0) {
+					advance(cursors.poll());
+				}
+			}
+
+			private void advance(int[] cursor) {
+				if (++cursor[1] < runs.get(cursor[0]).count) {
+					cursors.add(cursor);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Write records sorted by key to as many runs as needed to keep every run below
+	 * MAX_RUN_BYTES.
+	 */
+	private List<Run> writeRuns(Iterator<Node> nodes) throws IOException {
+
+		List<Run> runs = new ArrayList<Run>();
+		long perRun = MAX_RUN_BYTES / recordSize;
+
+		while (nodes.hasNext()) {
+
+			File file = newFile("closed");
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+			int count = 0;
+
+			try {
+				while (nodes.hasNext() && count < perRun) {
+					Node node = nodes.next();
+					writeKey(out, node.key);
+					out.writeDouble(node.g);
+					out.writeLong(node.parent == null ? 0 : 1);
+					writeKey(out, node.parent == null ? new long[words] : node.parent);
+					count++;
+				}
+			} finally {
+				out.close();
+			}
+
+			runs.add(new Run(file, count));
+		}
+
+		return runs;
+	}
+
+	/**
+	 * Write the worst half of the open list to a cold bucket.
+	 */
+	private void spillOpen() throws IOException {
+
+		List<Node> nodes = new ArrayList<Node>(open.size());
+		while (!open.isEmpty()) {
+			nodes.add(open.poll());
+		}
+
+		int keep = nodes.size() / 2;
+		open.addAll(nodes.subList(0, keep));
+
+		File file = newFile("open");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+
+		try {
+			for (Node node : nodes.subList(keep, nodes.size())) {
+				writeKey(out, node.key);
+				out.writeDouble(node.g);
+				out.writeDouble(node.f);
+				out.writeBoolean(node.parent != null);
+				writeKey(out, node.parent == null ? new long[words] : node.parent);
+			}
+		} finally {
+			out.close();
+		}
+
+		buckets.add(new Bucket(file, nodes.get(keep).f, nodes.size() - keep));
+	}
+
+	/**
+	 * Rebuild the plan by following the parents of the goal through the closed list.
+	 * The action between two states is found by comparing their keys.
+	 */
+	private Plan reconstructPlan(City initialCity, Node goal) {
+
+		Plan plan = new Plan(initialCity);
+
+		if (goal == null) {
+			return plan;
+		}
+
+		LinkedList<Action> actions = new LinkedList<Action>();
+		Node node = goal;
+
+		while (node.parent != null) {
+			actions.addFirst(action(node.parent, node.key));
+			node = findClosed(node.parent);
+		}
+
+		for (Action action : actions) {
+			plan.append(action);
+		}
+
+		return plan;
+	}
+
+	private Action action(long[] from, long[] to) {
+
+		City city = codec.city(to);
+
+		if (codec.city(from) != city) {
+			return new Action.Move(city);
+		}
+
+		for (int t = 0; t < codec.taskCount(); t++) {
+
+			int before = codec.status(from, t);
+			int after = codec.status(to, t);
+
+			if (before == StateCodec.AVAILABLE && after == StateCodec.TRANSPORTED) {
+				return new Action.Pickup(codec.task(t));
+			} else if (before == StateCodec.TRANSPORTED && after == StateCodec.DELIVERED) {
+				return new Action.Delivery(codec.task(t));
+			}
+		}
+
+		throw new IllegalStateException("No action between two states of the plan.");
+	}
+
+	/**
+	 * @return the expanded state with the lowest cost for a key
+	 */
+	private Node findClosed(long[] key) {
+
+		Node best = closed.get(new Key(key));
+
+		List<Run> runs = new ArrayList<Run>(largeRuns);
+		runs.addAll(smallRuns);
+
+		for (Run run : runs) {
+
+			int index = run.lowerBound(key, 0);
+
+			if (index < run.count && run.compareKey(index, key) == 0 && (best == null || run.cost(index) < best.g)) {
+				best = run.node(index);
+			}
+		}
+
+		if (best == null) {
+			throw new IllegalStateException("The parent of a state of the plan was not expanded.");
+		}
+
+		return best;
+	}
+
+	private File newFile(String prefix) {
+		return new File(directory, prefix + "-" + (files++) + ".bin");
+	}
+
+	private void close() {
+
+		List<Run> runs = new ArrayList<Run>(largeRuns);
+		runs.addAll(smallRuns);
+
+		for (Run run : runs) {
+			run.delete();
+		}
+
+		for (Bucket bucket : buckets) {
+			bucket.file.delete();
+		}
+
+		directory.delete();
+	}
+
+	private void writeKey(DataOutputStream out, long[] key) throws IOException {
+		for (long word : key) {
+			out.writeLong(word);
+		}
+	}
+
+	private static int compareKeys(long[] lhs, long[] rhs) {
+		for (int w = 0; w < lhs.length; w++) {
+			if (lhs[w] != rhs[w]) {
+				return Long.compare(lhs[w], rhs[w]);
+			}
+		}
+		return 0;
+	}
+
+	private static int compareRecords(Run lhs, int i, Run rhs, int j) {
+		for (int w = 0; w < lhs.words; w++) {
+			long a = lhs.word(i, w);
+			long b = rhs.word(j, w);
+			if (a != b) {
+				return Long.compare(a, b);
+			}
+		}
+		return Double.compare(lhs.cost(i), rhs.cost(j));
+	}
+
+	/**
+	 * A state in the open or closed list.
+	 */
+	static class Node {
+
+		final long[] key;
+		final double g;
+		final double f;
+		final long[] parent;
+
+		Node(long[] key, double g, double f, long[] parent) {
+			this.key = key;
+			this.g = g;
+			this.f = f;
+			this.parent = parent;
+		}
+	}
+
+	/**
+	 * A key in a hash map.
+	 */
+	static final class Key {
+
+		final long[] words;
+		final int hash;
+
+		Key(long[] words) {
+			this.words = words;
+			this.hash = Arrays.hashCode(words);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof Key && Arrays.equals(words, ((Key) o).words);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
+
+	/**
+	 * A memory-mapped file of closed records sorted by key then cost.
+	 */
+	class Run {
+
+		final File file;
+		final int count;
+		final int words;
+		final MappedByteBuffer buffer;
+
+		Run(File file, int count) throws IOException {
+			this.file = file;
+			this.count = count;
+			this.words = ExternalSearch.this.words;
+
+			RandomAccessFile access = new RandomAccessFile(file, "r");
+			try {
+				this.buffer = access.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, access.length());
+			} finally {
+				access.close();
+			}
+		}
+
+		long word(int index, int w) {
+			return buffer.getLong(index * recordSize + w * 8);
+		}
+
+		double cost(int index) {
+			return buffer.getDouble(index * recordSize + words * 8);
+		}
+
+		int compareKey(int index, long[] key) {
+			for (int w = 0; w < words; w++) {
+				long word = word(index, w);
+				if (word != key[w]) {
+					return Long.compare(word, key[w]);
+				}
+			}
+			return 0;
+		}
+
+		/**
+		 * @return the first record whose key is not lower than the given key, searching
+		 *         from a record known to be at or before it
+		 */
+		int lowerBound(long[] key, int from) {
+
+			// Gallop from the cursor, as the keys of a batch come in order
+			int step = 1;
+			int low = from;
+			int high = from;
+
+			while (high < count && compareKey(high, key) < 0) {
+				low = high + 1;
+				high = (int) Math.min(count, (long) high + step);
+				step *= 2;
+			}
+
+			while (low < high) {
+				int middle = (low + high) >>> 1;
+				if (compareKey(middle, key) < 0) {
+					low = middle + 1;
+				} else {
+					high = middle;
+				}
+			}
+
+			return low;
+		}
+
+		Node node(int index) {
+
+			long[] key = new long[words];
+			long[] parent = new long[words];
+			int offset = index * recordSize;
+
+			for (int w = 0; w < words; w++) {
+				key[w] = buffer.getLong(offset + w * 8);
+				parent[w] = buffer.getLong(offset + (words + 2 + w) * 8);
+			}
+
+			boolean hasParent = buffer.getLong(offset + (words + 1) * 8) != 0;
+			return new Node(key, cost(index), cost(index), hasParent ? parent : null);
+		}
+
+		void delete() {
+			file.delete();
+		}
+	}
+
+	/**
+	 * A file of open states, sorted by f.
+	 */
+	class Bucket implements Comparable<Bucket> {
+
+		final File file;
+		final double minF;
+		final int count;
+
+		Bucket(File file, double minF, int count) {
+			this.file = file;
+			this.minF = minF;
+			this.count = count;
+		}
+
+		/**
+		 * Read the states of the bucket back into the open list, except those that cannot
+		 * lead to a better plan, and delete the file.
+		 */
+		void load(PriorityQueue<Node> open, double bestCost) throws IOException {
+
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+
+			try {
+				for (int i = 0; i < count; i++) {
+					long[] key = readKey(in);
+					double g = in.readDouble();
+					double f = in.readDouble();
+					boolean hasParent = in.readBoolean();
+					long[] parent = readKey(in);
+
+					if (f <= bestCost) {
+						open.add(new Node(key, g, f, hasParent ? parent : null));
+					}
+				}
+			} finally {
+				in.close();
+			}
+
+			file.delete();
+		}
+
+		private long[] readKey(DataInputStream in) throws IOException {
+			long[] key = new long[words];
+			for (int w = 0; w < words; w++) {
+				key[w] = in.readLong();
+			}
+			return key;
+		}
+
+		@Override
+		public int compareTo(Bucket that) {
+			return Double.compare(minF, that.minF);
+		}
+	}
+}
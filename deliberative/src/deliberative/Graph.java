@@ -1,122 +1,439 @@
 package deliberative;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
-import java.util.Map;
-import java.util.PriorityQueue;
-import java.util.Set;
 
 import logist.topology.Topology.City;
 
+/**
+ * An undirected weighted graph over int nodes 0 to size - 1, such as cities by
+ * id, with shortest paths (Dijkstra) and minimum spanning trees (Prim and
+ * Kruskal).
+ *
+ * The adjacency is stored as a compressed sparse row: the edges of node u are
+ * the entries first[u] (included) to first[u + 1] (excluded) of target and
+ * weight, so that large topologies fit in a few flat arrays.
+ */
+class Graph {
 
-public class Graph<Node> {
-	
-	public Set<Node> nodes;
-	public Set<Edge<Node>> edges;
-	
-	public Graph(Set<Node> nodes, Set<Edge<Node>> edges) {
-		
-		this.nodes = nodes;
-		this.edges = edges;
-		
+	final int size;
+
+	private final int[] first;
+	private final int[] target;
+	private final double[] weight;
+
+	/** Edges in the order they were given, for Kruskal */
+	private final int[] edgeFrom;
+	private final int[] edgeTo;
+	private final double[] edgeWeight;
+
+	/**
+	 * @param size the number of nodes
+	 * @param from the first node of every edge
+	 * @param to the second node of every edge
+	 * @param weight the weight of every edge
+	 */
+	public Graph(int size, int[] from, int[] to, double[] weight) {
+
+		this.size = size;
+		this.edgeFrom = from.clone();
+		this.edgeTo = to.clone();
+		this.edgeWeight = weight.clone();
+
+		this.first = new int[size + 1];
+		this.target = new int[2 * from.length];
+		this.weight = new double[2 * from.length];
+
+		// Count the degree of every node, then fill both directions of every edge
+
+		for (int e = 0; e < from.length; e++) {
+			first[from[e] + 1]++;
+			first[to[e] + 1]++;
+		}
+
+		for (int u = 0; u < size; u++) {
+			first[u + 1] += first[u];
+		}
+
+		int[] next = Arrays.copyOf(first, size);
+
+		for (int e = 0; e < from.length; e++) {
+			target[next[from[e]]] = to[e];
+			this.weight[next[from[e]]++] = weight[e];
+			target[next[to[e]]] = from[e];
+			this.weight[next[to[e]]++] = weight[e];
+		}
 	}
-	
-	public double mstWeight() {
-		
-		PriorityQueue<Edge<Node>> edgesToVisit = new PriorityQueue<Edge<Node>>(edges);		
-		double totalWeight = 0;
-		DisjointSet<Node> set = new DisjointSet<Node>();
-
-		while (!edgesToVisit.isEmpty()) {
-			
-			Edge<Node> edge = edgesToVisit.poll();
-			
-			Node rootA = set.root(edge.a);
-			Node rootB = set.root(edge.b);
-			
-			if (rootA != rootB) {
-				totalWeight += edge.weight;
-				set.connect(rootA, rootB);
-			}
-		}
-		
-		return totalWeight;
+
+	/**
+	 * @return the graph of the roads between cities, by city id
+	 */
+	public static Graph roads(List<City> cities) {
+
+		int count = 0;
+
+		for (City city : cities) {
+			for (City neighbor : city.neighbors()) {
+				if (city.id < neighbor.id) {
+					count++;
+				}
+			}
+		}
+
+		int[] from = new int[count];
+		int[] to = new int[count];
+		double[] weight = new double[count];
+		int e = 0;
+
+		for (City city : cities) {
+			for (City neighbor : city.neighbors()) {
+				if (city.id < neighbor.id) {
+					from[e] = city.id;
+					to[e] = neighbor.id;
+					weight[e++] = city.distanceTo(neighbor);
+				}
+			}
+		}
+
+		return new Graph(cities.size(), from, to, weight);
 	}
-	
-	public static Graph<City> completeCityGraph(Set<City> cities) {
-		
-		Set<Edge<City>> edges = new HashSet<Edge<City>>();
-		List<City> cityArray = new ArrayList<City>(cities);
-		
-		for (int i = 0 ; i < cityArray.size() - 1; i++) {
-			for (int j = i+1; j < cityArray.size(); j++) {
-				
-				City city = cityArray.get(i);
-				City otherCity = cityArray.get(j);
-				
-				edges.add(new Edge<City>(city, otherCity, city.distanceTo(otherCity)));
-			}
-		}
-		
-		return new Graph<City>(cities, edges);
+
+	/**
+	 * Dijkstra from a node to all the others.
+	 *
+	 * @param previous if not null, filled with the node before every node on its
+	 *            shortest path, or -1 for the source and the unreachable nodes
+	 * @return the distance to every node, or infinity if it is unreachable
+	 */
+	public double[] distances(int source, int[] previous) {
+
+		double[] distances = new double[size];
+		Arrays.fill(distances, Double.POSITIVE_INFINITY);
+
+		if (previous != null) {
+			Arrays.fill(previous, -1);
+		}
+
+		Heap heap = new Heap(size);
+		distances[source] = 0;
+		heap.update(source, 0);
+
+		while (!heap.isEmpty()) {
+
+			int u = heap.poll();
+
+			for (int e = first[u]; e < first[u + 1]; e++) {
+
+				int v = target[e];
+				double distance = distances[u] + weight[e];
+
+				if (distance < distances[v]) {
+					distances[v] = distance;
+					heap.update(v, distance);
+
+					if (previous != null) {
+						previous[v] = u;
+					}
+				}
+			}
+		}
+
+		return distances;
+	}
+
+	/**
+	 * Prim, from every node not reached yet so that disconnected graphs give a
+	 * minimum spanning forest.
+	 *
+	 * @return the weight of the minimum spanning forest
+	 */
+	public double primWeight() {
+
+		double[] keys = new double[size];
+		boolean[] done = new boolean[size];
+		Arrays.fill(keys, Double.POSITIVE_INFINITY);
+
+		Heap heap = new Heap(size);
+		double total = 0;
+
+		for (int root = 0; root < size; root++) {
+
+			if (done[root]) {
+				continue;
+			}
+
+			keys[root] = 0;
+			heap.update(root, 0);
+
+			while (!heap.isEmpty()) {
+
+				int u = heap.poll();
+				done[u] = true;
+				total += keys[u];
+
+				for (int e = first[u]; e < first[u + 1]; e++) {
+
+					int v = target[e];
+
+					if (!done[v] && weight[e] < keys[v]) {
+						keys[v] = weight[e];
+						heap.update(v, weight[e]);
+					}
+				}
+			}
+		}
+
+		return total;
+	}
+
+	/**
+	 * @return the weight of the minimum spanning forest, computed with Kruskal
+	 */
+	public double kruskalWeight() {
+
+		Integer[] order = new Integer[edgeWeight.length];
+		for (int e = 0; e < order.length; e++) {
+			order[e] = e;
+		}
+
+		Arrays.sort(order, new Comparator<Integer>() {
+
+			@Override
+			public int compare(Integer lhs, Integer rhs) {
+				return Double.compare(edgeWeight[lhs], edgeWeight[rhs]);
+			}
+		});
+
+		DisjointSet set = new DisjointSet(size);
+		double total = 0;
+		int joined = 0;
+
+		for (int e : order) {
+			if (set.union(edgeFrom[e], edgeTo[e])) {
+				total += edgeWeight[e];
+
+				if (++joined == size - 1) {
+					break;
+				}
+			}
+		}
+
+		return total;
+	}
+
+	/**
+	 * Prim on the complete graph of some cities, weighted by the distance between
+	 * them. The graph is dense, so the closest city is found with a linear scan
+	 * instead of a heap, in O(k^2) for k cities.
+	 *
+	 * @return the weight of the minimum spanning tree of the cities
+	 */
+	public static double mstWeight(List<City> cities) {
+
+		int k = cities.size();
+
+		if (k < 2) {
+			return 0;
+		}
+
+		City[] nodes = cities.toArray(new City[k]);
+		double[] keys = new double[k];
+		Arrays.fill(keys, Double.POSITIVE_INFINITY);
+
+		// Nodes 0 to added - 1 are in the tree, the others are swapped behind them
+		double total = 0;
+		int u = 0;
+
+		for (int added = 1; added < k; added++) {
+
+			// Put the last node added at the front, then relax the others from it
+
+			City last = nodes[u];
+			nodes[u] = nodes[added - 1];
+			keys[u] = keys[added - 1];
+			nodes[added - 1] = last;
+
+			int closest = -1;
+
+			for (int v = added; v < k; v++) {
+
+				double distance = last.distanceTo(nodes[v]);
+
+				if (distance < keys[v]) {
+					keys[v] = distance;
+				}
+
+				if (closest < 0 || keys[v] < keys[closest]) {
+					closest = v;
+				}
+			}
+
+			total += keys[closest];
+			u = closest;
+		}
+
+		return total;
 	}
-	
-	static class Edge<Node> implements Comparable<Edge<Node>> {
-		
-		public Node a = null;
-		public Node b = null;
-		public Double weight = 0.0;
-		
-		public Edge(Node a, Node b, Double weight) {
-			this.a = a;
-			this.b = b;
-			this.weight = weight;
-		}
-		
-		@Override
-		public int compareTo(Edge<Node> that) {
-			return weight < that.weight ? -1 : 1;
-		}
-		
-		@Override
-		public String toString() {
-			return a + "-" + b + "@" + weight;
+
+	/**
+	 * A binary min-heap of nodes 0 to size - 1 by priority, which keeps the
+	 * position of every node so that its priority can be decreased in place.
+	 */
+	static class Heap {
+
+		private final int[] nodes;
+		private final double[] priorities;
+
+		/** Position of every node in the heap, or -1 if it is not in it */
+		private final int[] positions;
+		private int count = 0;
+
+		Heap(int size) {
+			nodes = new int[size];
+			priorities = new double[size];
+			positions = new int[size];
+			Arrays.fill(positions, -1);
+		}
+
+		public boolean isEmpty() {
+			return count == 0;
+		}
+
+		/**
+		 * Add a node, or decrease its priority if it is already in the heap.
+		 */
+		public void update(int node, double priority) {
+
+			int i = positions[node];
+
+			if (i < 0) {
+				i = count++;
+			} else if (priority >= priorities[i]) {
+				return;
+			}
+
+			// Sift up
+
+			while (i > 0) {
+
+				int parent = (i - 1) >>> 1;
+
+				if (priorities[parent] <= priority) {
+					break;
+				}
+
+				move(parent, i);
+				i = parent;
+			}
+
+			set(i, node, priority);
+		}
+
+		/**
+		 * @return the node with the lowest priority, removed from the heap
+		 */
+		public int poll() {
+
+			int top = nodes[0];
+			positions[top] = -1;
+
+			int node = nodes[--count];
+			double priority = priorities[count];
+
+			if (count == 0) {
+				return top;
+			}
+
+			// Sift down
+
+			int i = 0;
+
+			while (true) {
+
+				int child = 2 * i + 1;
+
+				if (child >= count) {
+					break;
+				}
+
+				if (child + 1 < count && priorities[child + 1] < priorities[child]) {
+					child++;
+				}
+
+				if (priority <= priorities[child]) {
+					break;
+				}
+
+				move(child, i);
+				i = child;
+			}
+
+			set(i, node, priority);
+
+			return top;
+		}
+
+		private void move(int from, int to) {
+			set(to, nodes[from], priorities[from]);
+		}
+
+		private void set(int i, int node, double priority) {
+			nodes[i] = node;
+			priorities[i] = priority;
+			positions[node] = i;
 		}
 	}
-	
-	static class DisjointSet<E> {
-		
-		private Map<E, E> parents = new HashMap<E, E>();
-		
-		public E root(E elem) {
-			return rootAndDepth(elem).x;
-		}
-		
-		public int depth(E elem) {
-			return rootAndDepth(elem).y;
-		}
-		
-		private Tuple<E, Integer> rootAndDepth(E elem) {
-			
-			E root = elem;
-			int depth = 0;
-			
-			while (parents.get(root) != null) {
-				root = parents.get(root);
-				depth++;
-			} 
-			
-			return new Tuple<E, Integer>(root, depth);
-		}
-		
-		public boolean connected(E lhs, E rhs) {
-			return root(lhs) == root(rhs);
-		}
-		
-		public void connect(E rhs, E lhs) {
-			parents.put(rhs, lhs);
+
+	/**
+	 * Union-find over nodes 0 to size - 1, with union by rank and path halving.
+	 */
+	static class DisjointSet {
+
+		private final int[] parents;
+		private final byte[] ranks;
+
+		DisjointSet(int size) {
+			parents = new int[size];
+			ranks = new byte[size];
+
+			for (int i = 0; i < size; i++) {
+				parents[i] = i;
+			}
+		}
+
+		public int root(int node) {
+
+			while (parents[node] != node) {
+				parents[node] = parents[parents[node]];
+				node = parents[node];
+			}
+
+			return node;
+		}
+
+		/**
+		 * @return true if the nodes were in different sets
+		 */
+		public boolean union(int lhs, int rhs) {
+
+			int a = root(lhs);
+			int b = root(rhs);
+
+			if (a == b) {
+				return false;
+			}
+
+			if (ranks[a] < ranks[b]) {
+				parents[a] = b;
+			} else if (ranks[a] > ranks[b]) {
+				parents[b] = a;
+			} else {
+				parents[b] = a;
+				ranks[a]++;
+			}
+
+			return true;
 		}
 	}
 }
@@ -0,0 +1,274 @@
+package deliberative;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+import logist.plan.Plan;
+import logist.task.Task;
+import logist.topology.Topology.City;
+
+/**
+ * A fast, suboptimal planner for task sets too large for a search.
+ *
+ * The plan is a sequence of stops, each the pickup or the delivery of a task.
+ * Tasks are inserted one at a time, the longest first, at the pickup and
+ * delivery positions that increase the distance the least while respecting
+ * the capacity. The sequence is then improved by removing every task and
+ * inserting it again at its best positions, until no task moves or the
+ * deadline is reached.
+ *
+ * Every insertion is found in O(n^2) for n stops: the load before every stop
+ * is kept, so that the capacity between the pickup and the delivery is
+ * checked with a running maximum.
+ */
+class InsertionPlanner {
+
+	private final State initialState;
+	private final int capacity;
+	private final Roads roads;
+	private final Logger logger;
+
+	/** Stops of the plan: the task of every stop, and whether it is its pickup */
+	private final List<Task> tasks = new ArrayList<Task>();
+	private final List<Boolean> pickups = new ArrayList<Boolean>();
+
+	/**
+	 * @param initialState the state to plan from
+	 * @param capacity the capacity of the vehicle
+	 * @param roads the paths between cities
+	 */
+	public InsertionPlanner(State initialState, int capacity, Roads roads, Logger logger) {
+		this.initialState = initialState;
+		this.capacity = capacity;
+		this.roads = roads;
+		this.logger = logger;
+	}
+
+	public Plan plan(long deadline) {
+
+		// Tasks in the vehicle only need to be delivered
+
+		for (Task task : initialState.transportedTasks) {
+			insert(task, false);
+		}
+
+		List<Task> available = new ArrayList<Task>(initialState.availableTasks);
+
+		Collections.sort(available, new Comparator<Task>() {
+
+			@Override
+			public int compare(Task lhs, Task rhs) {
+				return Double.compare(rhs.pathLength(), lhs.pathLength());
+			}
+		});
+
+		for (Task task : available) {
+			insert(task, true);
+		}
+
+		// Move tasks to their best positions, as long as it shortens the plan
+
+		boolean improved = true;
+
+		while (improved) {
+
+			improved = false;
+
+			for (Task task : new LinkedHashSet<Task>(tasks)) {
+
+				if (System.currentTimeMillis() >= deadline) {
+					return toPlan();
+				}
+
+				double before = distance();
+
+				List<Task> savedTasks = new ArrayList<Task>(tasks);
+				List<Boolean> savedPickups = new ArrayList<Boolean>(pickups);
+
+				remove(task);
+				insert(task, initialState.availableTasks.contains(task));
+				logger.increment();
+
+				if (distance() < before - 1e-9) {
+					improved = true;
+				} else {
+					tasks.clear();
+					tasks.addAll(savedTasks);
+					pickups.clear();
+					pickups.addAll(savedPickups);
+				}
+			}
+		}
+
+		return toPlan();
+	}
+
+	/**
+	 * Insert the stops of a task where they add the least distance.
+	 *
+	 * @param pickup whether the task must be picked up, or is already in the vehicle
+	 */
+	private void insert(Task task, boolean pickup) {
+
+		int n = tasks.size();
+		City[] cities = new City[n + 1];
+		int[] loads = new int[n + 1];
+
+		// City before every stop (the start for the first one), and load of the
+		// vehicle when arriving at every stop (and at the end)
+
+		cities[0] = initialState.currentCity;
+		loads[0] = capacity - initialState.capacity;
+
+		for (int i = 0; i < n; i++) {
+			Task stop = tasks.get(i);
+			cities[i + 1] = pickups.get(i) ? stop.pickupCity : stop.deliveryCity;
+			loads[i + 1] = loads[i] + (pickups.get(i) ? stop.weight : -stop.weight);
+		}
+
+		double bestDelta = Double.POSITIVE_INFINITY;
+		int bestPickup = -1;
+		int bestDelivery = -1;
+
+		if (!pickup) {
+
+			// The task is already counted in the loads, and in the vehicle until
+			// its delivery: the stops before it must not exceed the capacity
+
+			for (int j = 0; j <= n; j++) {
+
+				if (j > 0 && loads[j] > capacity) {
+					break;
+				}
+
+				double delta = detour(cities, j, task.deliveryCity);
+
+				if (delta < bestDelta) {
+					bestDelta = delta;
+					bestDelivery = j;
+				}
+			}
+
+			tasks.add(bestDelivery, task);
+			pickups.add(bestDelivery, false);
+			return;
+		}
+
+		for (int i = 0; i <= n; i++) {
+
+			// The task is in the vehicle from the pickup (before stop i) to the delivery
+			int maxLoad = loads[i];
+
+			if (maxLoad + task.weight > capacity) {
+				continue;
+			}
+
+			double pickupDelta = detour(cities, i, task.pickupCity);
+
+			for (int j = i; j <= n; j++) {
+
+				if (j > i) {
+					maxLoad = Math.max(maxLoad, loads[j]);
+
+					if (maxLoad + task.weight > capacity) {
+						break;
+					}
+				}
+
+				double delta;
+
+				if (j == i) {
+					// Both stops between the same pair of stops
+					City before = cities[i];
+					City after = i < n ? cities[i + 1] : null;
+					delta = before.distanceTo(task.pickupCity) + task.pickupCity.distanceTo(task.deliveryCity)
+							+ (after == null ? 0 : task.deliveryCity.distanceTo(after) - before.distanceTo(after));
+				} else {
+					delta = pickupDelta + detour(cities, j, task.deliveryCity);
+				}
+
+				if (delta < bestDelta) {
+					bestDelta = delta;
+					bestPickup = i;
+					bestDelivery = j;
+				}
+			}
+		}
+
+		if (bestPickup < 0) {
+			throw new IllegalArgumentException("Task " + task.id + " does not fit in the vehicle.");
+		}
+
+		tasks.add(bestDelivery, task);
+		pickups.add(bestDelivery, false);
+		tasks.add(bestPickup, task);
+		pickups.add(bestPickup, true);
+	}
+
+	/**
+	 * @return the distance added by visiting a city just before stop i (or at the end)
+	 */
+	private static double detour(City[] cities, int i, City city) {
+
+		City before = cities[i];
+
+		if (i + 1 >= cities.length) {
+			return before.distanceTo(city);
+		}
+
+		City after = cities[i + 1];
+		return before.distanceTo(city) + city.distanceTo(after) - before.distanceTo(after);
+	}
+
+	private void remove(Task task) {
+		for (int i = tasks.size() - 1; i >= 0; i--) {
+			if (tasks.get(i) == task) {
+				tasks.remove(i);
+				pickups.remove(i);
+			}
+		}
+	}
+
+	private double distance() {
+
+		double distance = 0;
+		City current = initialState.currentCity;
+
+		for (int i = 0; i < tasks.size(); i++) {
+			City city = pickups.get(i) ? tasks.get(i).pickupCity : tasks.get(i).deliveryCity;
+			distance += current.distanceTo(city);
+			current = city;
+		}
+
+		return distance;
+	}
+
+	private Plan toPlan() {
+
+		City current = initialState.currentCity;
+		Plan plan = new Plan(current);
+
+		for (int i = 0; i < tasks.size(); i++) {
+
+			Task task = tasks.get(i);
+			City city = pickups.get(i) ? task.pickupCity : task.deliveryCity;
+
+			for (City step : roads.path(current, city)) {
+				plan.appendMove(step);
+			}
+
+			if (pickups.get(i)) {
+				plan.appendPickup(task);
+			} else {
+				plan.appendDelivery(task);
+			}
+
+			current = city;
+		}
+
+		return plan;
+	}
+}
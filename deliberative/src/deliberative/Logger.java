@@ -8,9 +8,17 @@ import logist.simulation.Vehicle;
 public class Logger {
 	
 	private int counter = 0;
+	private String owner = null;
 	private String name = null;
 	private long start = 0;
 
+	public Logger() { }
+	
+	/** Prefix every result with the name of the agent, to tell agents apart in the output */
+	public Logger(String owner) {
+		this.owner = owner;
+	}
+
 	public void initialize(String name) {
 		this.counter = 0;
 		this.name = name;
@@ -21,11 +29,20 @@ public class Logger {
 		this.counter++;
 	}
 	
+	public void increment(int steps) {
+		this.counter += steps;
+	}
+	
+	/** Number of steps since the last initialization */
+	public int steps() {
+		return counter;
+	}
+	
 	public void logResults(Plan plan, Vehicle vehicle) {
 		
 		long time = new Date().getTime() - start;
 		
-		System.out.println(name + ": Found plan in " + counter + " steps (" + time + "ms). Plan has total distance " 
+		System.out.println((owner == null ? "" : owner + " - ") + name + ": Found plan in " + counter + " steps (" + time + "ms). Plan has total distance " 
 				+ plan.totalDistance() + " (total cost: " + plan.totalDistance() * vehicle.costPerKm() + " ).");
 	}
 	
@@ -37,6 +54,9 @@ public class Logger {
 		@Override
 		public void increment() { }
 		
+		@Override
+		public void increment(int steps) { }
+		
 		@Override
 		public void logResults(Plan plan, Vehicle vehicle) { }
 	}
@@ -0,0 +1,256 @@
+package deliberative;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import logist.task.Task;
+import logist.task.TaskSet;
+import logist.topology.Topology.City;
+
+/**
+ * A pattern database for the A* heuristic.
+ *
+ * For every small group of tasks (a pattern), every status of these tasks
+ * (available, transported or delivered) and every city, the database holds the
+ * exact distance needed to finish the tasks of the pattern from that city,
+ * pickups before deliveries, ignoring the capacity. Any plan finishing all the
+ * tasks also finishes those of a pattern, so each entry is a lower bound of the
+ * remaining distance, and so is the maximum over all patterns.
+ *
+ * The bounds of different patterns cannot be added, as the vehicle can serve
+ * several patterns along the same path, so they are combined with a maximum.
+ *
+ * Entries are stored in a flat array indexed by pattern, status and city, only
+ * for the start city and the cities of the tasks, so that the database does
+ * not grow with the topology. The entry of any other city is computed when it
+ * is needed, from the distances to those cities. Patterns are made smaller
+ * until the array fits in a fixed budget.
+ */
+class PatternDatabase {
+
+	/** Statuses of a task in a pattern */
+	private static final int AVAILABLE = 0;
+	private static final int TRANSPORTED = 1;
+	private static final int DELIVERED = 2;
+
+	/** Above this number of patterns, or of entries (64 MB), smaller patterns are used */
+	private static final int MAX_PATTERNS = 20000;
+	private static final long MAX_ENTRIES = 1 << 23;
+
+	/** The start city and the cities of the tasks, their index by id, and the distances between them */
+	private final List<City> stops = new ArrayList<City>();
+	private final Map<Integer, Integer> cityIndices = new HashMap<Integer, Integer>();
+	private final double[][] distances;
+	private final int cities;
+
+	/** Index of every task in the database, by id */
+	private final Map<Integer, Integer> indices = new HashMap<Integer, Integer>();
+	private final int[] pickups;
+	private final int[] deliveries;
+
+	private final int size;
+	private final int codes;
+	private final int[][] patterns;
+	private final double[] table;
+
+	/**
+	 * @param start the city the vehicle starts from
+	 * @param availableTasks the tasks to pick up
+	 * @param transportedTasks the tasks in the vehicle
+	 * @param patternSize the number of tasks in every pattern
+	 */
+	public PatternDatabase(City start, TaskSet availableTasks, TaskSet transportedTasks, int patternSize) {
+
+		List<Task> tasks = new ArrayList<Task>(availableTasks);
+		tasks.addAll(transportedTasks);
+
+		index(start);
+
+		pickups = new int[tasks.size()];
+		deliveries = new int[tasks.size()];
+
+		for (int i = 0; i < tasks.size(); i++) {
+			indices.put(tasks.get(i).id, i);
+			pickups[i] = index(tasks.get(i).pickupCity);
+			deliveries[i] = index(tasks.get(i).deliveryCity);
+		}
+
+		this.cities = stops.size();
+		this.distances = new double[cities][cities];
+
+		for (int from = 0; from < cities; from++) {
+			for (int to = 0; to < cities; to++) {
+				distances[from][to] = stops.get(from).distanceTo(stops.get(to));
+			}
+		}
+
+		int size = Math.min(patternSize, tasks.size());
+		while (size > 0 && (binomial(tasks.size(), size) > MAX_PATTERNS
+				|| binomial(tasks.size(), size) * (long) Math.pow(3, size) * cities > MAX_ENTRIES)) {
+			size--;
+		}
+
+		this.size = size;
+		this.codes = (int) Math.pow(3, size);
+		this.patterns = combinations(tasks.size(), size);
+		this.table = new double[patterns.length * codes * cities];
+
+		for (int p = 0; p < patterns.length; p++) {
+			fill(p);
+		}
+	}
+
+	/**
+	 * Compute the entries of one pattern. The status code of a pattern is the
+	 * base-3 number of the statuses of its tasks; finishing a task step always
+	 * increases the code, so codes are filled from the highest (all tasks
+	 * delivered, nothing left to do) down to the lowest.
+	 */
+	private void fill(int p) {
+
+		for (int code = codes - 2; code >= 0; code--) {
+			for (int city = 0; city < cities; city++) {
+				table[(p * codes + code) * cities + city] = entry(p, code, distances[city]);
+			}
+		}
+	}
+
+	/**
+	 * @param distances the distance from a city to every city of the database
+	 * @return the entry of a pattern and status code for that city, from the
+	 *         entries of the following codes
+	 */
+	private double entry(int p, int code, double[] distances) {
+
+		int[] pattern = patterns[p];
+		double best = Double.POSITIVE_INFINITY;
+		int rest = code;
+		int power = 1;
+
+		for (int t = 0; t < size; t++) {
+			int status = rest % 3;
+			rest /= 3;
+
+			if (status != DELIVERED) {
+				int next = status == AVAILABLE ? pickups[pattern[t]] : deliveries[pattern[t]];
+				best = Math.min(best, distances[next] + table[(p * codes + code + power) * cities + next]);
+			}
+			power *= 3;
+		}
+
+		return best;
+	}
+
+	/**
+	 * @return a lower bound of the distance needed to finish all the tasks of a state
+	 */
+	public double lowerBound(State state) {
+
+		if (patterns.length == 0) {
+			return 0;
+		}
+
+		int[] statuses = new int[pickups.length];
+		Arrays.fill(statuses, DELIVERED);
+
+		for (Task task : state.availableTasks) {
+			statuses[indices.get(task.id)] = AVAILABLE;
+		}
+
+		for (Task task : state.transportedTasks) {
+			statuses[indices.get(task.id)] = TRANSPORTED;
+		}
+
+		// A city between two stops has no entries, but is one move away from them
+		Integer city = cityIndices.get(state.currentCity.id);
+		double[] moves = null;
+
+		if (city == null) {
+			moves = new double[cities];
+
+			for (int to = 0; to < cities; to++) {
+				moves[to] = state.currentCity.distanceTo(stops.get(to));
+			}
+		}
+
+		double bound = 0;
+
+		for (int p = 0; p < patterns.length; p++) {
+
+			int code = 0;
+			for (int t = size - 1; t >= 0; t--) {
+				code = code * 3 + statuses[patterns[p][t]];
+			}
+
+			if (code == codes - 1) {
+				continue;
+			}
+
+			double entry = moves == null ? table[(p * codes + code) * cities + city] : entry(p, code, moves);
+			bound = Math.max(bound, entry);
+		}
+
+		return bound;
+	}
+
+	/**
+	 * @return the index of a city where the vehicle can stop, added to the others if it is new
+	 */
+	private int index(City city) {
+
+		Integer index = cityIndices.get(city.id);
+
+		if (index == null) {
+			index = stops.size();
+			cityIndices.put(city.id, index);
+			stops.add(city);
+		}
+
+		return index;
+	}
+
+	private static long binomial(int n, int k) {
+		long result = 1;
+		for (int i = 0; i < k; i++) {
+			result = result * (n - i) / (i + 1);
+		}
+		return result;
+	}
+
+	/** All subsets of size k of {0, ..., n-1}, in lexicographic order */
+	private static int[][] combinations(int n, int k) {
+
+		if (k == 0) {
+			return new int[0][];
+		}
+
+		int[][] combinations = new int[(int) binomial(n, k)][];
+		int[] current = new int[k];
+
+		for (int i = 0; i < k; i++) {
+			current[i] = i;
+		}
+
+		for (int c = 0; c < combinations.length; c++) {
+			combinations[c] = current.clone();
+
+			// Move to the next subset
+			int i = k - 1;
+			while (i >= 0 && current[i] == n - k + i) {
+				i--;
+			}
+
+			if (i >= 0) {
+				current[i]++;
+				for (int j = i + 1; j < k; j++) {
+					current[j] = current[j - 1] + 1;
+				}
+			}
+		}
+
+		return combinations;
+	}
+}
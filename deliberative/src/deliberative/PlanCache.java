@@ -0,0 +1,463 @@
+package deliberative;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import logist.plan.Action;
+import logist.plan.ActionHandler;
+import logist.plan.Plan;
+import logist.simulation.Vehicle;
+import logist.task.Task;
+import logist.topology.Topology;
+import logist.topology.Topology.City;
+
+/**
+ * A cache of optimal plans on local disk, shared by the runs of an experiment
+ * that plan from the same states again and again.
+ *
+ * A plan is stored under the SHA-256 of everything its search depends on: the
+ * topology, the planner, the current city, the tasks in the vehicle and the
+ * tasks to pick up (by cities and weight, so that tasks are matched by content
+ * and not by id), the capacity and the cost per km. The actions are stored as
+ * moves to a city id, and pick-ups and deliveries of a task by its index in the
+ * canonical order of the tasks of the state.
+ *
+ * The most recently used plans are also kept in memory, in front of the files.
+ * The directory keeps at most a given number of plans: the least recently used
+ * ones, by modification time, are deleted first. Files are written to a
+ * temporary name then renamed, so that concurrent runs never read half a plan.
+ *
+ * A cached plan is only returned once it is checked to be legal from the state:
+ * moves between neighbors, pick-ups in the pickup city of tasks that fit, and
+ * deliveries of all the tasks in their delivery city. Otherwise it is a miss.
+ *
+ * Agents share the memory of a directory if this class is loaded by the same
+ * class loader for all of them (see ReservationBoard).
+ */
+class PlanCache {
+
+	public static final int DEFAULT_MEMORY_PLANS = 256;
+	public static final int DEFAULT_DISK_PLANS = 10000;
+
+	private static final String EXTENSION = ".plan";
+
+	/** Kinds of the actions, stored in the two lowest bits of their code */
+	private static final int MOVE = 0;
+	private static final int PICKUP = 1;
+	private static final int DELIVERY = 2;
+
+	/** Caches of the process, by directory */
+	private static final Map<File, PlanCache> caches = new HashMap<File, PlanCache>();
+
+	private final File directory;
+	private final int diskPlans;
+
+	/** Codes of the actions of the most recently used plans, by key */
+	private final Map<String, int[]> memory;
+
+	private PlanCache(File directory, final int memoryPlans, int diskPlans) {
+
+		this.directory = directory;
+		this.diskPlans = diskPlans;
+
+		this.memory = new LinkedHashMap<String, int[]>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, int[]> eldest) {
+				return size() > memoryPlans;
+			}
+		};
+	}
+
+	/**
+	 * @param memoryPlans the number of plans kept in memory
+	 * @param diskPlans the number of plans kept in the directory
+	 * @return the cache of a directory, created with the given sizes if it is the
+	 *         first one of the process
+	 */
+	public static PlanCache of(File directory, int memoryPlans, int diskPlans) throws IOException {
+
+		File canonical = directory.getCanonicalFile();
+
+		synchronized (caches) {
+			PlanCache cache = caches.get(canonical);
+			if (cache == null) {
+				Files.createDirectories(canonical.toPath());
+				cache = new PlanCache(canonical, memoryPlans, diskPlans);
+				caches.put(canonical, cache);
+			}
+			return cache;
+		}
+	}
+
+	/**
+	 * @return a digest of the cities of a topology, their positions and roads
+	 */
+	public static String digest(Topology topology) {
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+
+		try {
+			for (City city : topology.cities()) {
+				out.writeInt(city.id);
+				out.writeUTF(city.name);
+				out.writeInt(city.xPos);
+				out.writeInt(city.yPos);
+
+				for (City neighbor : city.neighbors()) {
+					out.writeInt(neighbor.id);
+					out.writeDouble(city.distanceTo(neighbor));
+				}
+			}
+		} catch (IOException e) {
+			throw new AssertionError("Should not happen.", e);
+		}
+
+		return sha256(bytes.toByteArray());
+	}
+
+	/**
+	 * @param topology the digest of the topology
+	 * @param planner the algorithm and the settings that decide between plans of
+	 *            the same cost
+	 * @return the key of the plan of a state
+	 */
+	public static String key(String topology, String planner, State state, Vehicle vehicle) {
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+
+		try {
+			out.writeUTF(topology);
+			out.writeUTF(planner);
+			out.writeInt(state.currentCity.id);
+			out.writeInt(vehicle.capacity());
+			out.writeInt(state.capacity);
+			out.writeInt(vehicle.costPerKm());
+
+			List<Task> tasks = tasks(state);
+			out.writeInt(state.transportedTasks.size());
+			out.writeInt(tasks.size());
+
+			for (Task task : tasks) {
+				out.writeInt(task.pickupCity.id);
+				out.writeInt(task.deliveryCity.id);
+				out.writeInt(task.weight);
+			}
+		} catch (IOException e) {
+			throw new AssertionError("Should not happen.", e);
+		}
+
+		return sha256(bytes.toByteArray());
+	}
+
+	/**
+	 * @return the plan of a key, or null if it is not in the cache or not legal
+	 *         from the state
+	 */
+	public Plan get(String key, List<City> cities, State state) {
+
+		int[] codes;
+
+		synchronized (memory) {
+			codes = memory.get(key);
+		}
+
+		File file = new File(directory, key + EXTENSION);
+
+		if (codes == null) {
+			codes = read(file);
+
+			if (codes == null) {
+				return null;
+			}
+
+			synchronized (memory) {
+				memory.put(key, codes);
+			}
+		}
+
+		Plan plan = decode(codes, cities, state);
+
+		if (plan == null) {
+			synchronized (memory) {
+				memory.remove(key);
+			}
+			file.delete();
+			return null;
+		}
+
+		// The modification time orders the plans of the directory by last use
+		file.setLastModified(System.currentTimeMillis());
+
+		return plan;
+	}
+
+	/**
+	 * Store the plan of a key, in memory and in the directory.
+	 */
+	public void put(String key, State state, Plan plan) {
+
+		int[] codes = encode(plan, state);
+
+		synchronized (memory) {
+			memory.put(key, codes);
+		}
+
+		try {
+			File temporary = File.createTempFile(key, ".tmp", directory);
+
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)))) {
+				out.writeInt(codes.length);
+				for (int code : codes) {
+					out.writeInt(code);
+				}
+			}
+
+			Files.move(temporary.toPath(), new File(directory, key + EXTENSION).toPath(),
+					StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+			evict();
+		} catch (IOException e) {
+			// The plan is still in memory, and the next run computes it again
+			System.err.println("The plan could not be cached in " + directory + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * @return the codes of a file, or null if it does not exist or cannot be read
+	 */
+	private static int[] read(File file) {
+
+		if (!file.isFile()) {
+			return null;
+		}
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			int[] codes = new int[in.readInt()];
+			for (int i = 0; i < codes.length; i++) {
+				codes[i] = in.readInt();
+			}
+			return codes;
+		} catch (IOException | NegativeArraySizeException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Delete the least recently used plans beyond the size of the directory.
+	 */
+	private void evict() {
+
+		File[] files = directory.listFiles(new FilenameFilter() {
+
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.endsWith(EXTENSION);
+			}
+		});
+
+		if (files == null || files.length <= diskPlans) {
+			return;
+		}
+
+		final long[] times = new long[files.length];
+		Integer[] order = new Integer[files.length];
+
+		for (int i = 0; i < files.length; i++) {
+			times[i] = files[i].lastModified();
+			order[i] = i;
+		}
+
+		Arrays.sort(order, new Comparator<Integer>() {
+
+			@Override
+			public int compare(Integer lhs, Integer rhs) {
+				return Long.compare(times[lhs], times[rhs]);
+			}
+		});
+
+		for (int i = 0; i < files.length - diskPlans; i++) {
+			files[order[i]].delete();
+		}
+	}
+
+	/**
+	 * @return the tasks in the vehicle then the tasks to pick up, each sorted by
+	 *         content, so that tasks with the same cities and weight can be swapped
+	 */
+	private static List<Task> tasks(State state) {
+
+		Comparator<Task> content = new Comparator<Task>() {
+
+			@Override
+			public int compare(Task lhs, Task rhs) {
+				if (lhs.pickupCity.id != rhs.pickupCity.id) {
+					return Integer.compare(lhs.pickupCity.id, rhs.pickupCity.id);
+				}
+				if (lhs.deliveryCity.id != rhs.deliveryCity.id) {
+					return Integer.compare(lhs.deliveryCity.id, rhs.deliveryCity.id);
+				}
+				if (lhs.weight != rhs.weight) {
+					return Integer.compare(lhs.weight, rhs.weight);
+				}
+				return Integer.compare(lhs.id, rhs.id);
+			}
+		};
+
+		List<Task> transported = new ArrayList<Task>(state.transportedTasks);
+		List<Task> available = new ArrayList<Task>(state.availableTasks);
+		Collections.sort(transported, content);
+		Collections.sort(available, content);
+
+		List<Task> tasks = new ArrayList<Task>(transported);
+		tasks.addAll(available);
+		return tasks;
+	}
+
+	private static int[] encode(Plan plan, State state) {
+
+		final Map<Task, Integer> indices = new HashMap<Task, Integer>();
+		List<Task> tasks = tasks(state);
+
+		for (int i = 0; i < tasks.size(); i++) {
+			indices.put(tasks.get(i), i);
+		}
+
+		List<Integer> codes = new ArrayList<Integer>();
+
+		for (Action action : plan) {
+			codes.add(action.accept(new ActionHandler<Integer>() {
+
+				@Override
+				public Integer moveTo(City city) {
+					return city.id << 2 | MOVE;
+				}
+
+				@Override
+				public Integer pickup(Task task) {
+					return indices.get(task) << 2 | PICKUP;
+				}
+
+				@Override
+				public Integer deliver(Task task) {
+					return indices.get(task) << 2 | DELIVERY;
+				}
+			}));
+		}
+
+		int[] array = new int[codes.size()];
+		for (int i = 0; i < array.length; i++) {
+			array[i] = codes.get(i);
+		}
+		return array;
+	}
+
+	/**
+	 * @return the plan of some codes from a state, or null if it is not legal
+	 */
+	private static Plan decode(int[] codes, List<City> cities, State state) {
+
+		List<Task> tasks = tasks(state);
+		int transported = state.transportedTasks.size();
+
+		// Whether every task is in the vehicle, and whether it was delivered
+		boolean[] carried = new boolean[tasks.size()];
+		boolean[] delivered = new boolean[tasks.size()];
+		Arrays.fill(carried, 0, transported, true);
+
+		City current = state.currentCity;
+		int capacity = state.capacity;
+		Plan plan = new Plan(current);
+
+		for (int code : codes) {
+
+			int index = code >>> 2;
+
+			switch (code & 3) {
+			case MOVE:
+				if (index >= cities.size() || !current.hasNeighbor(cities.get(index))) {
+					return null;
+				}
+				current = cities.get(index);
+				plan.appendMove(current);
+				break;
+
+			case PICKUP:
+				if (index >= tasks.size() || carried[index] || delivered[index]) {
+					return null;
+				}
+				Task pickup = tasks.get(index);
+				if (pickup.pickupCity != current || pickup.weight > capacity) {
+					return null;
+				}
+				carried[index] = true;
+				capacity -= pickup.weight;
+				plan.appendPickup(pickup);
+				break;
+
+			case DELIVERY:
+				if (index >= tasks.size() || !carried[index]) {
+					return null;
+				}
+				Task delivery = tasks.get(index);
+				if (delivery.deliveryCity != current) {
+					return null;
+				}
+				carried[index] = false;
+				delivered[index] = true;
+				capacity += delivery.weight;
+				plan.appendDelivery(delivery);
+				break;
+
+			default:
+				return null;
+			}
+		}
+
+		for (boolean done : delivered) {
+			if (!done) {
+				return null;
+			}
+		}
+
+		return plan;
+	}
+
+	private static String sha256(byte[] bytes) {
+
+		try {
+			byte[] hash = MessageDigest.getInstance("SHA-256").digest(bytes);
+			StringBuilder hex = new StringBuilder();
+			for (byte b : hash) {
+				hex.append(String.format("%02x", b));
+			}
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new AssertionError("Every JVM supports SHA-256.", e);
+		}
+	}
+}
@@ -0,0 +1,42 @@
+package deliberative;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event of one call to DeliberativeAgent.plan, so that GC
+ * pauses and CPU spikes of a recording can be matched to the plan that caused
+ * them. When no recording is running, begin and commit do nothing, and the
+ * fields are not even computed.
+ */
+@Name("deliberative.Plan")
+@Label("Deliberative Plan")
+@Category({ "Logist", "Deliberative" })
+@Description("Computation of the plan of a vehicle")
+@StackTrace(false)
+class PlanEvent extends jdk.jfr.Event {
+
+	@Label("Agent")
+	String agent;
+
+	@Label("Vehicle")
+	String vehicle;
+
+	@Label("Algorithm")
+	String algorithm;
+
+	@Label("Tasks")
+	@Description("Number of tasks to pick up and tasks in the vehicle")
+	int tasks;
+
+	@Label("Expansions")
+	@Description("Number of states expanded by the search")
+	long expansions;
+
+	@Label("Cost")
+	@Description("Total cost of the plan")
+	double cost;
+}
@@ -0,0 +1,171 @@
+package deliberative;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import logist.plan.Action;
+import logist.plan.ActionHandler;
+import logist.plan.Plan;
+import logist.simulation.Vehicle;
+import logist.task.Task;
+import logist.topology.Topology.City;
+
+/**
+ * A board shared by the deliberative agents of a simulation, on which every
+ * agent publishes the tasks its plan picks up and when it expects to get
+ * there. A task is reserved by the agent that arrives first; the others plan
+ * it last, as it will most likely be gone when they arrive, which cancels
+ * their plan.
+ *
+ * The board is a concurrent map from task id to reservation, updated with
+ * compare-and-set only, so agents planning at the same time never block each
+ * other.
+ *
+ * Agents share a board if this class is loaded by the same class loader for
+ * all of them, that is if the module is on the class path of the JVM, and
+ * not only on the class-path of the agents. Agents join the board when they
+ * are set up, so that an agent left alone on its board can tell.
+ */
+class ReservationBoard {
+
+	/** Boards of the simulations of the process, by task distribution */
+	private static final Map<Object, ReservationBoard> boards = new WeakHashMap<Object, ReservationBoard>();
+
+	private final ConcurrentMap<Integer, Reservation> reservations = new ConcurrentHashMap<Integer, Reservation>();
+
+	/** The agents using the board */
+	private final Set<Integer> participants = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+
+	/**
+	 * @return the board of a simulation
+	 */
+	public static ReservationBoard of(Object simulation) {
+		synchronized (boards) {
+			ReservationBoard board = boards.get(simulation);
+			if (board == null) {
+				board = new ReservationBoard();
+				boards.put(simulation, board);
+			}
+			return board;
+		}
+	}
+
+	public void join(int agent) {
+		participants.add(agent);
+	}
+
+	public int participants() {
+		return participants.size();
+	}
+
+	/**
+	 * A task reserved by an agent, which expects to pick it up at the given time.
+	 */
+	static class Reservation {
+
+		final int owner;
+		final double eta;
+
+		Reservation(int owner, double eta) {
+			this.owner = owner;
+			this.eta = eta;
+		}
+	}
+
+	/**
+	 * Reserve a task, unless another agent arrives earlier.
+	 *
+	 * @return true if the task is reserved by the agent
+	 */
+	public boolean reserve(int taskId, int owner, double eta) {
+
+		Reservation reservation = new Reservation(owner, eta);
+
+		while (true) {
+			Reservation current = reservations.get(taskId);
+
+			if (current == null) {
+				if (reservations.putIfAbsent(taskId, reservation) == null) {
+					return true;
+				}
+			} else if (current.owner == owner || eta < current.eta) {
+				if (reservations.replace(taskId, current, reservation)) {
+					return true;
+				}
+			} else {
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * Remove all the reservations of an agent, before it plans again.
+	 */
+	public void release(int owner) {
+		for (Map.Entry<Integer, Reservation> entry : reservations.entrySet()) {
+			if (entry.getValue().owner == owner) {
+				reservations.remove(entry.getKey(), entry.getValue());
+			}
+		}
+	}
+
+	/**
+	 * @return true if another agent reserved the task and arrives before the
+	 *         given time
+	 */
+	public boolean contested(Task task, int owner, double eta) {
+		Reservation reservation = reservations.get(task.id);
+		return reservation != null && reservation.owner != owner && reservation.eta < eta;
+	}
+
+	/**
+	 * @return the time at which a vehicle arrives after the given distance, counted
+	 *         from the start of the simulation as the vehicle never waits
+	 */
+	public static double eta(Vehicle vehicle, double distance) {
+		return (vehicle.getDistance() + distance) / vehicle.speed();
+	}
+
+	/**
+	 * Reserve every task picked up by a plan, with the time at which the vehicle
+	 * gets there if it follows the plan.
+	 */
+	public void publish(final int owner, final Vehicle vehicle, Plan plan) {
+
+		City current = vehicle.getCurrentCity();
+		double distance = 0;
+
+		for (Action action : plan) {
+
+			final City from = current;
+			final double eta = eta(vehicle, distance);
+
+			// The city reached by the action, after reserving its task if it is a pickup
+			City to = action.accept(new ActionHandler<City>() {
+
+				@Override
+				public City moveTo(City city) {
+					return city;
+				}
+
+				@Override
+				public City pickup(Task task) {
+					reserve(task.id, owner, eta);
+					return from;
+				}
+
+				@Override
+				public City deliver(Task task) {
+					return from;
+				}
+			});
+
+			distance += from.distanceTo(to);
+			current = to;
+		}
+	}
+}
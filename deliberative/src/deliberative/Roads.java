@@ -0,0 +1,63 @@
+package deliberative;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import logist.topology.Topology.City;
+
+/**
+ * Shortest paths between the cities of a topology, on the {@link Graph} of its
+ * roads.
+ *
+ * The shortest path tree of a city is computed with Dijkstra the first time a
+ * path leaves from it, then kept: plans only leave from the start and the
+ * cities of their tasks, so large topologies never need all the trees.
+ */
+class Roads {
+
+	private final City[] cities;
+	private final Graph graph;
+
+	/** The node before every node on its shortest path, by source, or null if not computed yet */
+	private final int[][] trees;
+
+	public Roads(List<City> cities) {
+		this.cities = new City[cities.size()];
+
+		for (City city : cities) {
+			this.cities[city.id] = city;
+		}
+
+		this.graph = Graph.roads(cities);
+		this.trees = new int[cities.size()][];
+	}
+
+	/**
+	 * @return the cities of a shortest path, without the first one, as
+	 *         {@link City#pathTo}
+	 */
+	public List<City> path(City from, City to) {
+
+		int[] previous = trees[from.id];
+
+		if (previous == null) {
+			previous = new int[cities.length];
+			graph.distances(from.id, previous);
+			trees[from.id] = previous;
+		}
+
+		List<City> path = new ArrayList<City>();
+
+		for (int u = to.id; u != from.id; u = previous[u]) {
+			if (u < 0) {
+				throw new IllegalArgumentException("No road from " + from + " to " + to);
+			}
+			path.add(cities[u]);
+		}
+
+		// The tree gives the path backwards
+		Collections.reverse(path);
+		return path;
+	}
+}
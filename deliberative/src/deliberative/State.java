@@ -20,65 +20,101 @@ class State {
 	public TaskSet transportedTasks;
 	public int capacity;
 	
+	/* The last task picked up since the vehicle arrived in the current city, or null */
+	public Task lastPickup;
+	
 	public State(
 		City currentCity, 
 		TaskSet availableTasks, 
 		TaskSet transportedTasks, 
 		int capacity
+	) {
+		this(currentCity, availableTasks, transportedTasks, capacity, null);
+	}
+	
+	public State(
+		City currentCity, 
+		TaskSet availableTasks, 
+		TaskSet transportedTasks, 
+		int capacity,
+		Task lastPickup
 	) {
 		this.currentCity = currentCity;
 		this.availableTasks = availableTasks;
 		this.transportedTasks = transportedTasks;
 		this.capacity = capacity;
+		this.lastPickup = lastPickup;
 	}
 	
 	public State(Vehicle vehicle, TaskSet tasks) {
 		this.currentCity = vehicle.getCurrentCity();
 		this.availableTasks = tasks;
 		this.transportedTasks = vehicle.getCurrentTasks();
-		this.capacity = vehicle.capacity();
+		
+		// After a cancelled plan, the vehicle may still carry tasks
+		this.capacity = vehicle.capacity() - transportedTasks.weightSum();
 	}
 	
+	/**
+	 * The states reachable with one action, without the ones that cannot lead to
+	 * a cheaper plan than the others. Pickups and deliveries cost nothing, and
+	 * those made in the same city can be reordered:
+	 * 
+	 *  - Delivering a task in the current city only frees capacity, so it is
+	 *    done first, and is then the only successor. Tasks delivered in the same
+	 *    city are delivered by increasing id.
+	 *  - Picking up tasks in the same city in any order leads to the same state,
+	 *    so they are picked up by increasing id: after a pickup, only tasks with
+	 *    a larger id can be picked up before moving. The last pickup is part of
+	 *    the state, so that the search never prunes a state that can still pick
+	 *    up a task because of another one that cannot. It is left out when it
+	 *    forbids nothing, so that such states are not told apart.
+	 */
 	public List<Tuple<State, Action>> nextStates() {
 		
 		List<Tuple<State, Action>> nextStates = new ArrayList<Tuple<State, Action>>();
 		
-		for (Task task: availableTasks) {
+		for (Task task: transportedTasks) {
 			
-			if (task.pickupCity == currentCity && task.weight <= capacity) {
-				
-				// Pick-up the task
+			if (task.deliveryCity == currentCity) {
 				
-				TaskSet newAvailableTasks = availableTasks.clone();
-				newAvailableTasks.remove(task);
+				// Deliver the task, and nothing else
 				
 				TaskSet newTransportedTasks = transportedTasks.clone();
-				newTransportedTasks.add(task);
+				newTransportedTasks.remove(task);
 				
 				nextStates.add(new Tuple<State, Action>(new State(
 					currentCity,
-					newAvailableTasks,
+					availableTasks,
 					newTransportedTasks,
-					capacity - task.weight
-				), new Action.Pickup(task)));
+					capacity + task.weight,
+					lastPickup
+				), new Action.Delivery(task)));
+				
+				return nextStates;
 			}
 		}
 		
-		for (Task task: transportedTasks) {
+		for (Task task: availableTasks) {
 			
-			if (task.deliveryCity == currentCity) {
+			if (task.pickupCity == currentCity && task.weight <= capacity
+					&& (lastPickup == null || task.id > lastPickup.id)) {
 				
-				// Deliver the task
+				// Pick-up the task
+				
+				TaskSet newAvailableTasks = availableTasks.clone();
+				newAvailableTasks.remove(task);
 				
 				TaskSet newTransportedTasks = transportedTasks.clone();
-				newTransportedTasks.remove(task);
+				newTransportedTasks.add(task);
 				
 				nextStates.add(new Tuple<State, Action>(new State(
 					currentCity,
-					availableTasks,
+					newAvailableTasks,
 					newTransportedTasks,
-					capacity + task.weight
-				), new Action.Delivery(task)));
+					capacity - task.weight,
+					restricts(task) ? task : null
+				), new Action.Pickup(task)));
 			}
 		}
 
@@ -97,11 +133,33 @@ class State {
 		return nextStates;
 	}
 	
+	/**
+	 * @return whether picking up a task forbids picking up other tasks in the
+	 *         current city, which is not the case if all their ids are larger
+	 */
+	private boolean restricts(Task pickup) {
+		
+		for (Task task: availableTasks) {
+			if (task.pickupCity == currentCity && task.id < pickup.id) {
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
 	public boolean isFinal() {
 		return availableTasks.isEmpty() && transportedTasks.isEmpty();
 	}
 	
-	public Double heuristic(Vehicle vehicle) {
+	/**
+	 * A lower bound of the cost to finish all tasks: the weight of the minimum
+	 * spanning tree over the cities left to visit, or the bound given by the
+	 * pattern database if it is tighter.
+	 * 
+	 * @param patterns the pattern database of the plan, or null
+	 */
+	public Double heuristic(Vehicle vehicle, PatternDatabase patterns) {
 		
 		Set<City> cities = new HashSet<City>();
 		
@@ -116,7 +174,13 @@ class State {
 		
 		cities.add(currentCity);
 		
-		return Graph.completeCityGraph(cities).mstWeight() * vehicle.costPerKm() ;
+		double bound = Graph.mstWeight(new ArrayList<City>(cities));
+		
+		if (patterns != null) {
+			bound = Math.max(bound, patterns.lowerBound(this));
+		}
+		
+		return bound * vehicle.costPerKm();
 	}
 	
 	@Override
@@ -133,12 +197,13 @@ class State {
         State that = (State) o;
         return Objects.equals(currentCity, that.currentCity) &&
                Objects.equals(capacity, that.capacity) &&
+               Objects.equals(lastPickup, that.lastPickup) &&
                Objects.equals(availableTasks, that.availableTasks) &&
                Objects.equals(transportedTasks, that.transportedTasks);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(currentCity, capacity, availableTasks, transportedTasks);
+        return Objects.hash(currentCity, capacity, lastPickup, availableTasks, transportedTasks);
     }
 }
@@ -0,0 +1,150 @@
+package deliberative;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import logist.task.Task;
+import logist.task.TaskSet;
+import logist.topology.Topology.City;
+
+/**
+ * Encodes the states of one plan as fixed-size arrays of longs, so that they
+ * can be written to disk and compared without the task sets: the id of the
+ * current city, then two bits per task for its status (available, transported
+ * or delivered), then the last pickup in the current city (the index of the
+ * task plus one, or 0 if there is none).
+ *
+ * The capacity of a state is not encoded, as it only depends on the statuses
+ * of the tasks: two states are equal if and only if their keys are.
+ */
+class StateCodec {
+
+	static final int AVAILABLE = 0;
+	static final int TRANSPORTED = 1;
+	static final int DELIVERED = 2;
+
+	private final List<City> cities;
+	private final List<Task> tasks;
+
+	/** Initial status of every task, to compute the capacity of a state */
+	private final int[] initialStatus;
+	private final int initialCapacity;
+
+	/** The universe of the task sets of the decoded states */
+	private final TaskSet universe;
+
+	private final int cityBits;
+	private final int pickupBits;
+
+	/** Number of longs in a key */
+	final int words;
+
+	public StateCodec(List<City> cities, State initialState) {
+
+		this.cities = cities;
+		this.tasks = new ArrayList<Task>(initialState.availableTasks);
+		this.tasks.addAll(initialState.transportedTasks);
+		this.initialStatus = new int[tasks.size()];
+		this.initialCapacity = initialState.capacity;
+
+		for (int t = 0; t < tasks.size(); t++) {
+			initialStatus[t] = initialState.transportedTasks.contains(tasks.get(t)) ? TRANSPORTED : AVAILABLE;
+		}
+
+		TaskSet universe = initialState.availableTasks.clone();
+		universe.addAll(initialState.transportedTasks);
+		this.universe = universe;
+
+		this.cityBits = Math.max(1, 32 - Integer.numberOfLeadingZeros(cities.size() - 1));
+		this.pickupBits = 32 - Integer.numberOfLeadingZeros(tasks.size());
+		this.words = (cityBits + 2 * tasks.size() + pickupBits + 63) / 64;
+	}
+
+	public long[] encode(State state) {
+
+		long[] key = new long[words];
+		set(key, 0, cityBits, state.currentCity.id);
+
+		for (int t = 0; t < tasks.size(); t++) {
+
+			Task task = tasks.get(t);
+			int status = DELIVERED;
+
+			if (state.availableTasks.contains(task)) {
+				status = AVAILABLE;
+			} else if (state.transportedTasks.contains(task)) {
+				status = TRANSPORTED;
+			}
+
+			set(key, cityBits + 2 * t, 2, status);
+		}
+
+		if (state.lastPickup != null) {
+			set(key, cityBits + 2 * tasks.size(), pickupBits, tasks.indexOf(state.lastPickup) + 1);
+		}
+
+		return key;
+	}
+
+	public State decode(long[] key) {
+
+		TaskSet available = TaskSet.noneOf(universe);
+		TaskSet transported = TaskSet.noneOf(universe);
+		int capacity = initialCapacity;
+
+		for (int t = 0; t < tasks.size(); t++) {
+
+			Task task = tasks.get(t);
+			int status = status(key, t);
+
+			if (status == AVAILABLE) {
+				available.add(task);
+			} else if (status == TRANSPORTED) {
+				transported.add(task);
+			}
+
+			// The capacity changes with pickups and deliveries made during the plan
+			if (initialStatus[t] == AVAILABLE && status == TRANSPORTED) {
+				capacity -= task.weight;
+			} else if (initialStatus[t] == TRANSPORTED && status == DELIVERED) {
+				capacity += task.weight;
+			}
+		}
+
+		int lastPickup = (int) get(key, cityBits + 2 * tasks.size(), pickupBits);
+
+		return new State(city(key), available, transported, capacity, lastPickup == 0 ? null : tasks.get(lastPickup - 1));
+	}
+
+	public City city(long[] key) {
+		return cities.get((int) get(key, 0, cityBits));
+	}
+
+	public int status(long[] key, int task) {
+		return (int) get(key, cityBits + 2 * task, 2);
+	}
+
+	public int taskCount() {
+		return tasks.size();
+	}
+
+	public Task task(int index) {
+		return tasks.get(index);
+	}
+
+	private static void set(long[] key, int offset, int bits, long value) {
+		for (int b = 0; b < bits; b++) {
+			if ((value >>> b & 1) != 0) {
+				key[(offset + b) >>> 6] |= 1L << ((offset + b) & 63);
+			}
+		}
+	}
+
+	private static long get(long[] key, int offset, int bits) {
+		long value = 0;
+		for (int b = 0; b < bits; b++) {
+			value |= (key[(offset + b) >>> 6] >>> ((offset + b) & 63) & 1) << b;
+		}
+		return value;
+	}
+}
@@ -0,0 +1,216 @@
+package deliberative;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import logist.config.Parsers;
+import logist.topology.Topology;
+import logist.topology.Topology.City;
+
+/**
+ * Checks of {@link Graph} and {@link Roads} against the shipped topologies and
+ * against naive implementations on random graphs.
+ *
+ * Run from the deliberative directory, with the classes of src and the logist
+ * library on the class path:
+ *
+ * <pre>
+ * java -cp ../logist/logist.jar:bin deliberative.GraphTest
+ * </pre>
+ */
+public class GraphTest {
+
+	private static final String[] TOPOLOGIES = { "england", "france", "switzerland", "the_netherlands" };
+
+	private static final double EPSILON = 1e-9;
+
+	private static int checks = 0;
+
+	public static void main(String[] args) throws Exception {
+
+		for (String name : TOPOLOGIES) {
+			Topology topology = Parsers.parseTopology("config/topology/" + name + ".xml");
+			checkTopology(topology);
+		}
+
+		Random random = new Random(42);
+
+		for (int run = 0; run < 200; run++) {
+			checkRandomGraph(random);
+		}
+
+		checkHeap(random);
+		checkDisjointSet();
+
+		System.out.println("GraphTest: " + checks + " checks passed.");
+	}
+
+	/**
+	 * Dijkstra and the paths of the roads agree with the distances of logist, and
+	 * all the spanning tree algorithms agree with each other.
+	 */
+	private static void checkTopology(Topology topology) {
+
+		List<City> cities = topology.cities();
+		Graph graph = Graph.roads(cities);
+		Roads roads = new Roads(cities);
+
+		check(near(graph.primWeight(), graph.kruskalWeight()), "Prim and Kruskal differ on " + topology);
+
+		for (City from : cities) {
+
+			double[] distances = graph.distances(from.id, null);
+
+			for (City to : cities) {
+
+				check(near(distances[to.id], from.distanceTo(to)), "Dijkstra differs from " + from + " to " + to);
+
+				City current = from;
+				double length = 0;
+
+				for (City step : roads.path(from, to)) {
+					check(current.hasNeighbor(step), "No road from " + current + " to " + step);
+					length += current.distanceTo(step);
+					current = step;
+				}
+
+				check(current == to, "The path from " + from + " does not end at " + to);
+				check(near(length, from.distanceTo(to)), "The path from " + from + " to " + to + " is not shortest");
+			}
+		}
+
+		// The complete graph of the cities, weighted by their distances
+		int n = cities.size();
+		int[] lhs = new int[n * (n - 1) / 2];
+		int[] rhs = new int[lhs.length];
+		double[] weights = new double[lhs.length];
+		int e = 0;
+
+		for (int u = 0; u < n; u++) {
+			for (int v = u + 1; v < n; v++) {
+				lhs[e] = u;
+				rhs[e] = v;
+				weights[e++] = cities.get(u).distanceTo(cities.get(v));
+			}
+		}
+
+		Graph complete = new Graph(n, lhs, rhs, weights);
+		double mst = Graph.mstWeight(new ArrayList<City>(cities));
+
+		check(near(mst, complete.primWeight()), "mstWeight and Prim differ on " + topology);
+		check(near(mst, complete.kruskalWeight()), "mstWeight and Kruskal differ on " + topology);
+	}
+
+	/**
+	 * Dijkstra agrees with Bellman-Ford, and Prim with Kruskal, on a random graph
+	 * that may be disconnected.
+	 */
+	private static void checkRandomGraph(Random random) {
+
+		int size = 1 + random.nextInt(40);
+		int count = random.nextInt(3 * size);
+		int[] from = new int[count];
+		int[] to = new int[count];
+		double[] weight = new double[count];
+
+		for (int e = 0; e < count; e++) {
+			from[e] = random.nextInt(size);
+			to[e] = random.nextInt(size);
+			weight[e] = random.nextInt(4) == 0 ? 1 : random.nextDouble() * 100;
+		}
+
+		Graph graph = new Graph(size, from, to, weight);
+
+		check(near(graph.primWeight(), graph.kruskalWeight()), "Prim and Kruskal differ on a random graph");
+
+		int source = random.nextInt(size);
+		double[] expected = new double[size];
+		Arrays.fill(expected, Double.POSITIVE_INFINITY);
+		expected[source] = 0;
+
+		for (int round = 1; round < size; round++) {
+			for (int e = 0; e < count; e++) {
+				expected[to[e]] = Math.min(expected[to[e]], expected[from[e]] + weight[e]);
+				expected[from[e]] = Math.min(expected[from[e]], expected[to[e]] + weight[e]);
+			}
+		}
+
+		int[] previous = new int[size];
+		double[] distances = graph.distances(source, previous);
+
+		for (int u = 0; u < size; u++) {
+
+			check(near(distances[u], expected[u]), "Dijkstra differs from Bellman-Ford at node " + u);
+
+			boolean reached = u != source && distances[u] != Double.POSITIVE_INFINITY;
+			check(reached == (previous[u] >= 0), "Wrong previous node of node " + u);
+		}
+	}
+
+	/**
+	 * The heap gives back its nodes by increasing priority, after any sequence
+	 * of updates.
+	 */
+	private static void checkHeap(Random random) {
+
+		int size = 1000;
+		Graph.Heap heap = new Graph.Heap(size);
+		double[] priorities = new double[size];
+		Arrays.fill(priorities, Double.POSITIVE_INFINITY);
+
+		for (int i = 0; i < 10 * size; i++) {
+			int node = random.nextInt(size);
+			double priority = random.nextDouble();
+
+			heap.update(node, priority);
+			priorities[node] = Math.min(priorities[node], priority);
+		}
+
+		double last = Double.NEGATIVE_INFINITY;
+		int polled = 0;
+
+		while (!heap.isEmpty()) {
+			int node = heap.poll();
+
+			check(priorities[node] >= last, "The heap gave node " + node + " out of order");
+			last = priorities[node];
+			priorities[node] = Double.NaN;
+			polled++;
+		}
+
+		int expected = 0;
+		for (double priority : priorities) {
+			if (!Double.isInfinite(priority)) {
+				expected++;
+			}
+		}
+
+		check(polled == expected, "The heap gave " + polled + " nodes instead of " + expected);
+	}
+
+	private static void checkDisjointSet() {
+
+		Graph.DisjointSet set = new Graph.DisjointSet(6);
+
+		check(set.union(0, 1), "0 and 1 were already joined");
+		check(set.union(2, 3), "2 and 3 were already joined");
+		check(set.union(1, 3), "1 and 3 were already joined");
+		check(!set.union(0, 2), "0 and 2 were not joined");
+		check(set.root(0) == set.root(3), "0 and 3 have different roots");
+		check(set.root(4) != set.root(5), "4 and 5 have the same root");
+	}
+
+	private static boolean near(double lhs, double rhs) {
+		return lhs == rhs || Math.abs(lhs - rhs) < EPSILON;
+	}
+
+	private static void check(boolean condition, String message) {
+		checks++;
+
+		if (!condition) {
+			throw new AssertionError(message);
+		}
+	}
+}
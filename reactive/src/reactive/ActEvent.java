@@ -0,0 +1,66 @@
+package reactive;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import logist.agent.Agent;
+import logist.plan.Action;
+import logist.simulation.Vehicle;
+import logist.task.Task;
+
+/**
+ * Flight Recorder event of one call to act, in any reactive behavior. When no
+ * recording is running, begin and commit do nothing, and the fields are not
+ * even computed.
+ *
+ * Vehicles act tens of thousands of times per second, so the event is disabled
+ * by default: enable it in the .jfc settings of the recording, with
+ * <event name="reactive.Act"><setting name="enabled">true</setting></event>.
+ */
+@Name("reactive.Act")
+@Label("Reactive Act")
+@Category({ "Logist", "Reactive" })
+@Description("Choice of the action of a vehicle")
+@StackTrace(false)
+@Enabled(false)
+class ActEvent extends jdk.jfr.Event {
+
+	@Label("Agent")
+	String agent;
+
+	@Label("Vehicle")
+	String vehicle;
+
+	@Label("City")
+	String city;
+
+	@Label("Task")
+	@Description("Id of the task available in the city, or -1 if there is none")
+	int task;
+
+	@Label("Action")
+	String action;
+
+	@Label("Total Profit")
+	@Description("Total profit of the agent before the action")
+	long profit;
+
+	/**
+	 * Fill the fields and commit the event, if it is recorded.
+	 */
+	public void commit(Agent agent, Vehicle vehicle, Task task, Action action) {
+
+		if (shouldCommit()) {
+			this.agent = agent.name();
+			this.vehicle = vehicle.name();
+			this.city = vehicle.getCurrentCity().name;
+			this.task = task == null ? -1 : task.id;
+			this.action = action.toString();
+			this.profit = agent.getTotalProfit();
+			commit();
+		}
+	}
+}
@@ -9,7 +9,7 @@ public class BehaviorLogger {
 	public final void logProfit(Agent agent) {
 		
 		if (numActions >= 1) {
-			System.out.println(agent.name() + ": The total profit after "+numActions+" actions is "+agent.getTotalProfit()+" (average profit: "+(agent.getTotalProfit() / (double)numActions)+")");
+			System.out.println(agent.name() + ": The total profit after "+numActions+" actions is "+agent.getTotalProfit()+" (average profit: "+(agent.getTotalProfit() / (double)numActions)+", total distance: "+agent.getTotalDistance()+")");
 		}
 		
 		numActions++;
@@ -53,6 +53,9 @@ public class GreedyBehavior implements ReactiveBehavior {
 
 	@Override
 	public Action act(Vehicle vehicle, Task availableTask) {
+		ActEvent event = new ActEvent();
+		event.begin();
+		
 		Action action;
 
 		if (availableTask == null) {
@@ -63,6 +66,7 @@ public class GreedyBehavior implements ReactiveBehavior {
 		}
 		
 		logger.logProfit(myAgent);
+		event.commit(myAgent, vehicle, availableTask, action);
 		
 		return action;
 	}
@@ -0,0 +1,504 @@
+package reactive;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import logist.task.TaskDistribution;
+import logist.topology.Topology;
+import logist.topology.Topology.City;
+
+/**
+ * Markov decision process of the reactive agent, shared by all the vehicles
+ * of an agent. States and actions are numbered and stored in flat tables:
+ *
+ *  - State (c, d) has index c * (n + 1) + d + 1, where d is the destination of the
+ *    task available in city c, and state (c, no task) has index c * (n + 1).
+ *  - Action 0 is the pick-up, action c + 1 is the move to city c.
+ *
+ * Taking an action always leads to a known city, where the next state only depends
+ * on the task distribution. The transition model thus does not need to be stored as
+ * a (state, action, state) table: the expected value of the next state is the
+ * expected value of the city the action leads to, which is kept up to date while
+ * solving.
+ *
+ * The moves of a state only depend on its city, so they are stored once per city,
+ * and only the pick-up is stored per state. Rewards are stored as the task reward and
+ * the distance of every action, so that the same model can be solved for any cost per
+ * km and discount factor.
+ *
+ * The tables with an entry per state (n * (n + 1) of them) are either arrays on the
+ * heap, or files mapped in memory (see Storage), for topologies of a thousand cities
+ * and more. The tables per city always stay on the heap.
+ *
+ * Models and their solutions are cached for the whole process, by task distribution,
+ * so that agents of the same simulation with different discount factors or costs per
+ * km share them. Agents only share the cache if this class is loaded by the same class
+ * loader for all of them, that is if the module is on the class path of the JVM (as
+ * when run by the tools), and not only on the class-path of the agents.
+ *
+ */
+class RLAModel {
+
+	/** Index of the pick-up action */
+	public static final int PICKUP = 0;
+
+	/**
+	 * Where the tables with an entry per state are stored:
+	 *
+	 *  - HEAP: in buffers backed by arrays of the Java heap.
+	 *  - MAPPED: in temporary files mapped in memory, which count neither towards the
+	 *    maximum heap size nor the maximum direct memory. The operating system pages
+	 *    them in and out as needed, and the files are deleted as soon as they are
+	 *    mapped (or when the JVM exits, where a mapped file cannot be deleted).
+	 */
+	enum Storage { HEAP, MAPPED }
+
+	/** Models of the task distributions of the process */
+	private static final Map<TaskDistribution, RLAModel> models = new WeakHashMap<TaskDistribution, RLAModel>();
+
+	final List<City> cities;
+
+	/** Number of cities and of states */
+	final int n;
+	final int stateCount;
+
+	final Storage storage;
+
+	/** Directory of the mapped files, or null for the default temporary directory */
+	final File directory;
+
+	/** Probability of every state, given the city the agent arrives in */
+	final DoubleBuffer probability;
+
+	/** Reward and distance of the pick-up in every state (0 in the states without a task) */
+	final DoubleBuffer reward;
+	final DoubleBuffer distance;
+
+	/**
+	 *  Moves of every city, as a compressed sparse row: the moves from city c are the
+	 *  entries firstMove[c] (included) to firstMove[c + 1] (excluded).
+	 */
+	final int[] firstMove;
+	final int[] moveCity;
+	final double[] moveDistance;
+
+	/** Solved lanes of this model, by discount factor and cost per km */
+	private final Map<String, Lane> lanes = new HashMap<String, Lane>();
+
+	public RLAModel(Topology topology, TaskDistribution td) {
+		this(topology, td, Storage.HEAP, null);
+	}
+
+	/**
+	 * @param storage where the tables with an entry per state are stored
+	 * @param directory the directory of the mapped files, or null for the default
+	 *            temporary directory
+	 */
+	public RLAModel(Topology topology, TaskDistribution td, Storage storage, File directory) {
+
+		this.cities = topology.cities();
+		this.n = cities.size();
+		this.stateCount = n * (n + 1);
+		this.storage = storage;
+		this.directory = directory;
+
+		// Moves, in the order of the cities so that ties are broken as before
+
+		this.firstMove = new int[n + 1];
+
+		for (City city : cities) {
+			firstMove[city.id + 1] = firstMove[city.id] + city.neighbors().size();
+		}
+
+		this.moveCity = new int[firstMove[n]];
+		this.moveDistance = new double[firstMove[n]];
+
+		for (City city : cities) {
+
+			int next = firstMove[city.id];
+
+			for (City neighbor : cities) {
+				if (city.hasNeighbor(neighbor)) {
+					moveCity[next] = neighbor.id;
+					moveDistance[next] = city.distanceTo(neighbor);
+					next++;
+				}
+			}
+		}
+
+		// Probability of every state, and its pick-up if there is a task
+
+		this.probability = doubles(stateCount);
+		this.reward = doubles(stateCount);
+		this.distance = doubles(stateCount);
+
+		for (City city : cities) {
+			for (int d = -1; d < n; d++) {
+
+				int s = state(city.id, d);
+
+				if (d < 0) {
+					probability.put(s, td.probability(city, null));
+				} else {
+					City destination = cities.get(d);
+					probability.put(s, td.probability(city, destination));
+					reward.put(s, td.reward(city, destination));
+					distance.put(s, city.distanceTo(destination));
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the model of a task distribution, shared by all the agents of the process
+	 */
+	public static RLAModel of(Topology topology, TaskDistribution td) {
+		return of(topology, td, Storage.HEAP, null);
+	}
+
+	/**
+	 * @return the model of a task distribution, shared by all the agents of the process.
+	 *         The storage only applies if the model is not in the cache yet, as it does
+	 *         not change the policies.
+	 */
+	public static RLAModel of(Topology topology, TaskDistribution td, Storage storage, File directory) {
+
+		synchronized (models) {
+
+			RLAModel model = models.get(td);
+
+			if (model == null || model.cities != topology.cities()) {
+				model = new RLAModel(topology, td, storage, directory);
+				models.put(td, model);
+			}
+
+			return model;
+		}
+	}
+
+	/**
+	 * Solve the model for every pair of discount factor and cost per km, except for the
+	 * pairs that are already solved. All the missing pairs are solved together, as the
+	 * lanes of a single solution.
+	 *
+	 * @param discounts the discount factors
+	 * @param costs the costs per km
+	 * @param threshold error below which value iteration stops, in every lane
+	 * @return the lane of every pair, by discount factor then cost per km
+	 */
+	public synchronized Lane[][] solve(double[] discounts, int[] costs, double threshold) {
+
+		List<String> missing = new ArrayList<String>();
+		List<Double> missingDiscounts = new ArrayList<Double>();
+		List<Double> missingCosts = new ArrayList<Double>();
+
+		for (double discount : discounts) {
+			for (int cost : costs) {
+				String key = key(discount, cost);
+
+				if (!lanes.containsKey(key) && !missing.contains(key)) {
+					missing.add(key);
+					missingDiscounts.add(discount);
+					missingCosts.add((double) cost);
+				}
+			}
+		}
+
+		if (!missingDiscounts.isEmpty()) {
+
+			double[] laneDiscounts = new double[missingDiscounts.size()];
+			double[] laneCosts = new double[missingCosts.size()];
+
+			for (int l = 0; l < laneDiscounts.length; l++) {
+				laneDiscounts[l] = missingDiscounts.get(l);
+				laneCosts[l] = missingCosts.get(l);
+			}
+
+			SolveEvent event = new SolveEvent();
+			event.begin();
+
+			Solution solution = new Solution(this, laneDiscounts, laneCosts);
+
+			double error;
+			int sweeps = 0;
+
+			do {
+				error = solution.sweep();
+				sweeps++;
+			} while (error >= threshold);
+
+			if (event.shouldCommit()) {
+				event.states = stateCount;
+				event.lanes = laneDiscounts.length;
+				event.sweeps = sweeps;
+				event.error = error;
+				event.commit();
+			}
+
+			for (int l = 0; l < laneDiscounts.length; l++) {
+				lanes.put(missing.get(l), new Lane(solution, l));
+			}
+		}
+
+		Lane[][] solved = new Lane[discounts.length][costs.length];
+
+		for (int i = 0; i < discounts.length; i++) {
+			for (int j = 0; j < costs.length; j++) {
+				solved[i][j] = lanes.get(key(discounts[i], costs[j]));
+			}
+		}
+
+		return solved;
+	}
+
+	private static String key(double discount, int cost) {
+		return discount + "/" + cost;
+	}
+
+	/**
+	 * @param city id of the current city
+	 * @param destination id of the destination of the available task, or -1 if there is none
+	 * @return index of the state
+	 */
+	public int state(int city, int destination) {
+		return city * (n + 1) + destination + 1;
+	}
+
+	/**
+	 * @return the number of actions of all the states: the moves of every state, and
+	 *         the pick-up of the states with a task
+	 */
+	public long actionCount() {
+		return (long) (n + 1) * firstMove[n] + (long) n * n;
+	}
+
+	/**
+	 * @return a table of doubles with the storage of the model, filled with 0
+	 */
+	DoubleBuffer doubles(int count) {
+		return storage == Storage.HEAP ? DoubleBuffer.allocate(count) : map(8L * count).asDoubleBuffer();
+	}
+
+	/**
+	 * @return a table of ints with the storage of the model, filled with 0
+	 */
+	IntBuffer ints(int count) {
+		return storage == Storage.HEAP ? IntBuffer.allocate(count) : map(4L * count).asIntBuffer();
+	}
+
+	/**
+	 * Map a new temporary file in memory. The mapping stays valid after the file is
+	 * closed and deleted, until the buffer is garbage collected.
+	 */
+	private ByteBuffer map(long size) {
+
+		if (size > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("A table of " + size + " bytes is too large to be mapped.");
+		}
+
+		try {
+			File file = File.createTempFile("rla", ".bin", directory);
+
+			try (RandomAccessFile table = new RandomAccessFile(file, "rw")) {
+				return table.getChannel().map(MapMode.READ_WRITE, 0, size).order(ByteOrder.nativeOrder());
+			} finally {
+				if (!file.delete()) {
+					file.deleteOnExit();
+				}
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException("The tables of the model could not be mapped.", e);
+		}
+	}
+
+	/**
+	 * Values and best actions of every state of a model, for several pairs of (discount
+	 * factor, cost per km) at once. Each pair is a lane, and lanes are interleaved in the
+	 * tables so that every action is read once per sweep for all of them: entry (s, l) of
+	 * a table is stored at index s * lanes + l.
+	 */
+	static class Solution {
+
+		final RLAModel model;
+		final int lanes;
+		final double[] discounts;
+		final double[] costs;
+
+		/** Value and best action of every state, with the storage of the model */
+		final DoubleBuffer V;
+		final IntBuffer A;
+
+		/** Expected value of the state found when arriving in a city */
+		final double[] E;
+
+		/** Best move from the current city, and best value of the current state, for every lane */
+		private final double[] bestMove;
+		private final int[] bestMoveAction;
+		private final double[] best;
+		private final int[] bestAction;
+
+
+		/**
+		 * @param model the model to solve
+		 * @param discounts discount factor of every lane
+		 * @param costs cost per km of every lane
+		 */
+		Solution(RLAModel model, double[] discounts, double[] costs) {
+
+			this.model = model;
+			this.lanes = discounts.length;
+			this.discounts = discounts.clone();
+			this.costs = costs.clone();
+
+			this.V = model.doubles(model.stateCount * lanes);
+			this.A = model.ints(model.stateCount * lanes);
+			this.E = new double[model.n * lanes];
+
+			this.bestMove = new double[lanes];
+			this.bestMoveAction = new int[lanes];
+			this.best = new double[lanes];
+			this.bestAction = new int[lanes];
+		}
+
+		/**
+		 * One sweep of value iteration over all the states, updating the values in place.
+		 *
+		 * States are swept by city, in the order of their index, so that the tables per
+		 * state are read and written sequentially. The best move is the same for all the
+		 * states of a city: the expected values of the neighbors do not change while
+		 * they are swept, so it is found once per city, and only the pick-up is compared
+		 * to it in every state. The pick-up wins ties, as it comes first among the
+		 * actions of a state.
+		 *
+		 * @return the largest squared error of a lane between the previous values and the
+		 * 		   updated ones
+		 */
+		public double sweep() {
+
+			int n = model.n;
+			int[] firstMove = model.firstMove;
+			int[] moveCity = model.moveCity;
+			double[] moveDistance = model.moveDistance;
+			DoubleBuffer reward = model.reward;
+			DoubleBuffer distance = model.distance;
+			DoubleBuffer probability = model.probability;
+
+			double[] errors = new double[lanes];
+			int s = 0;
+
+			for (int c = 0; c < n; c++) {
+
+				// Find the move that maximizes Q, in all lanes
+
+				for (int l = 0; l < lanes; l++) {
+					bestMove[l] = Double.NEGATIVE_INFINITY;
+				}
+
+				for (int m = firstMove[c]; m < firstMove[c + 1]; m++) {
+
+					int e = moveCity[m] * lanes;
+					double d = moveDistance[m];
+
+					for (int l = 0; l < lanes; l++) {
+
+						double q = -d * costs[l] + discounts[l] * E[e + l];
+
+						if (q > bestMove[l]) {
+							bestMove[l] = q;
+							bestMoveAction[l] = moveCity[m] + 1;
+						}
+					}
+				}
+
+				int e = c * lanes;
+
+				for (int destination = -1; destination < n; destination++, s++) {
+
+					// Compare the pick-up, if there is a task, to the best move
+
+					for (int l = 0; l < lanes; l++) {
+						best[l] = bestMove[l];
+						bestAction[l] = bestMoveAction[l];
+					}
+
+					if (destination >= 0) {
+
+						int next = destination * lanes;
+						double r = reward.get(s);
+						double d = distance.get(s);
+
+						for (int l = 0; l < lanes; l++) {
+
+							double q = r - d * costs[l] + discounts[l] * E[next + l];
+
+							if (q >= best[l]) {
+								best[l] = q;
+								bestAction[l] = PICKUP;
+							}
+						}
+					}
+
+					// Update V and A, and the expected value of the city of the state
+
+					int v = s * lanes;
+					double p = probability.get(s);
+
+					for (int l = 0; l < lanes; l++) {
+
+						double delta = best[l] - V.get(v + l);
+						errors[l] += delta * delta;
+
+						E[e + l] += p * delta;
+						V.put(v + l, best[l]);
+						A.put(v + l, bestAction[l]);
+					}
+				}
+			}
+
+			double error = 0;
+
+			for (double laneError : errors) {
+				error = Math.max(error, laneError);
+			}
+
+			return error;
+		}
+
+		/**
+		 * @return the best action in a state, for a lane
+		 */
+		public int action(int state, int lane) {
+			return A.get(state * lanes + lane);
+		}
+	}
+
+	/**
+	 * One lane of a solution: the policy for a discount factor and a cost per km.
+	 */
+	static class Lane {
+
+		final Solution solution;
+		final int index;
+
+		Lane(Solution solution, int index) {
+			this.solution = solution;
+			this.index = index;
+		}
+
+		public int action(int state) {
+			return solution.action(state, index);
+		}
+	}
+}
@@ -36,6 +36,9 @@ public class RandomBehavior implements ReactiveBehavior {
 
 	@Override
 	public Action act(Vehicle vehicle, Task availableTask) {
+		ActEvent event = new ActEvent();
+		event.begin();
+		
 		Action action;
 
 		if (availableTask == null || random.nextDouble() > pPickup) {
@@ -46,6 +49,7 @@ public class RandomBehavior implements ReactiveBehavior {
 		}
 		
 		logger.logProfit(myAgent);
+		event.commit(myAgent, vehicle, availableTask, action);
 		
 		return action;
 	}
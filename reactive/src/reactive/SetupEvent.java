@@ -0,0 +1,35 @@
+package reactive;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event of the setup of RLABehavior: building the model, or
+ * finding it in the cache, and solving the policies of the agent.
+ */
+@Name("reactive.Setup")
+@Label("Reactive Setup")
+@Category({ "Logist", "Reactive" })
+@Description("Setup of a reinforcement learning agent")
+@StackTrace(false)
+class SetupEvent extends jdk.jfr.Event {
+
+	@Label("Agent")
+	String agent;
+
+	@Label("Discount Factor")
+	double discountFactor;
+
+	@Label("States")
+	int states;
+
+	@Label("Actions")
+	long actions;
+
+	@Label("Lanes")
+	@Description("Number of pairs of discount factor and cost per km requested")
+	int lanes;
+}
@@ -0,0 +1,33 @@
+package reactive;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event of the value iteration of RLAModel, for the lanes that
+ * were not in the cache yet.
+ */
+@Name("reactive.Solve")
+@Label("Reactive Value Iteration")
+@Category({ "Logist", "Reactive" })
+@Description("Value iteration of a reinforcement learning model")
+@StackTrace(false)
+class SolveEvent extends jdk.jfr.Event {
+
+	@Label("States")
+	int states;
+
+	@Label("Lanes")
+	@Description("Number of pairs of discount factor and cost per km solved together")
+	int lanes;
+
+	@Label("Sweeps")
+	int sweeps;
+
+	@Label("Error")
+	@Description("Largest squared error of a lane in the last sweep")
+	double error;
+}
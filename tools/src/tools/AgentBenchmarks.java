@@ -0,0 +1,421 @@
+package tools;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import logist.agent.Agent;
+import logist.behavior.CentralizedBehavior;
+import logist.behavior.ReactiveBehavior;
+import logist.config.Parsers;
+import logist.simulation.Vehicle;
+import logist.task.Task;
+import logist.task.TaskDistribution;
+import logist.task.TaskSet;
+import logist.topology.Topology;
+import logist.topology.Topology.City;
+
+/**
+ * Micro-benchmarks of the reactive and centralized agents on every bundled
+ * topology, in the spirit of JMH: warmup iterations, then measured iterations
+ * reporting the average time per operation, its standard deviation and the
+ * bytes allocated per operation.
+ *
+ * Usage (from the centralized directory, as CentralizedTemplate reads its settings from there):
+ *
+ *   java -cp ../logist/logist.jar:bin:../reactive/bin:../tools/bin tools.AgentBenchmarks
+ *        [--quick] [--filter regex] [--baseline baseline.csv] [--topologies dir] results.csv
+ *
+ * With a baseline, every result is compared to the baseline one and changes
+ * larger than the noise are reported. A results file can be used as the
+ * baseline of a later run. The results of the reference build are kept in
+ * tools/config/benchmark_baseline.csv, to be passed as
+ * {@code --baseline ../tools/config/benchmark_baseline.csv}.
+ *
+ * Allocations are counted on the calling thread only, so the work of the
+ * threads started by a planner is not included.
+ *
+ */
+public class AgentBenchmarks {
+
+	public static final String CSV_HEADER = "benchmark,topology,mode,iterations,ns_per_op,stddev_ns,bytes_per_op";
+
+	/** Relative change below which a difference is not reported */
+	private static final double THRESHOLD = 0.1;
+
+	private static final long SEED = 12345;
+
+	/** Number of (vehicle, task) pairs that act() benchmarks cycle through */
+	private static final int ACT_INPUTS = 1024;
+
+	private int warmupIterations = 3;
+	private int iterations = 5;
+	private long iterationTime = 1000;
+
+	/** Results are folded into this field, so that the JIT cannot remove the benchmarked work */
+	private volatile int sink;
+
+	public static void main(String[] args) throws Exception {
+
+		AgentBenchmarks benchmarks = new AgentBenchmarks();
+		String filter = ".*";
+		File baseline = null;
+		File topologies = new File("config/topology");
+		File output = null;
+
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+			case "--quick":
+				benchmarks.warmupIterations = 1;
+				benchmarks.iterations = 3;
+				benchmarks.iterationTime = 200;
+				break;
+			case "--filter": filter = args[++i]; break;
+			case "--baseline": baseline = new File(args[++i]); break;
+			case "--topologies": topologies = new File(args[++i]); break;
+			default: output = new File(args[i]); break;
+			}
+		}
+
+		if (output == null) {
+			System.out.println("Usage: java tools.AgentBenchmarks [--quick] [--filter regex] [--baseline baseline.csv]"
+					+ " [--topologies dir] results.csv");
+			System.exit(1);
+		}
+
+		Map<String, double[]> reference = baseline == null ? null : readBaseline(baseline);
+
+		File[] files = topologies.listFiles();
+		if (files == null) {
+			throw new IOException("No topologies in " + topologies.getAbsolutePath());
+		}
+		Arrays.sort(files);
+
+		List<Microbenchmark> list = new ArrayList<Microbenchmark>();
+		for (File file : files) {
+			if (file.getName().endsWith(".xml")) {
+				list.addAll(create(file));
+			}
+		}
+
+		PrintWriter writer = new PrintWriter(output, "UTF-8");
+		writer.println(CSV_HEADER);
+
+		try {
+			for (Microbenchmark benchmark : list) {
+				if (benchmark.id().matches(filter)) {
+					double[] result = benchmarks.measure(benchmark);
+
+					writer.println(SimulationRun.csv(benchmark.name, benchmark.scenario,
+							benchmark.singleShot ? "ss" : "avgt", benchmarks.iterations,
+							Math.round(result[0]), Math.round(result[1]), Math.round(result[2])));
+					writer.flush();
+
+					report(benchmark, result, reference == null ? null : reference.get(benchmark.id()));
+				}
+			}
+		} finally {
+			writer.close();
+		}
+
+		System.out.println("Results written to " + output);
+	}
+
+	/**
+	 * Run the warmup and measured iterations of a benchmark.
+	 *
+	 * @return the mean and standard deviation of the time per operation (in
+	 *         ns) over the iterations, and the bytes allocated per operation
+	 */
+	private double[] measure(Microbenchmark benchmark) throws Exception {
+
+		PrintStream out = System.out;
+
+		// The agents print their progress, which must not be measured
+		System.setOut(new PrintStream(new OutputStream() {
+
+			@Override
+			public void write(int b) { }
+
+			@Override
+			public void write(byte[] b, int off, int len) { }
+		}));
+
+		try {
+			benchmark.setUp();
+
+			for (int i = 0; i < warmupIterations; i++) {
+				iteration(benchmark);
+			}
+
+			double[] times = new double[iterations];
+			long operations = 0;
+			long allocated = allocatedBytes();
+
+			for (int i = 0; i < iterations; i++) {
+				long[] iteration = iteration(benchmark);
+				times[i] = iteration[0] / (double) iteration[1];
+				operations += iteration[1];
+			}
+
+			allocated = allocatedBytes() - allocated;
+
+			double mean = 0;
+			for (double time : times) {
+				mean += time / iterations;
+			}
+
+			double variance = 0;
+			for (double time : times) {
+				variance += (time - mean) * (time - mean) / Math.max(1, iterations - 1);
+			}
+
+			return new double[] { mean, Math.sqrt(variance), allocated / (double) operations };
+
+		} finally {
+			System.setOut(out);
+		}
+	}
+
+	/**
+	 * @return the time spent (ns) and the number of operations run
+	 */
+	private long[] iteration(Microbenchmark benchmark) throws Exception {
+
+		long deadline = System.nanoTime() + iterationTime * 1000000;
+		long start = System.nanoTime();
+		long operations = 0;
+		int sum = 0;
+
+		do {
+			Object result = benchmark.run();
+			sum += result == null ? 0 : result.hashCode();
+			operations++;
+		} while (!benchmark.singleShot && System.nanoTime() < deadline);
+
+		long time = System.nanoTime() - start;
+		sink += sum;
+
+		return new long[] { time, operations };
+	}
+
+	private static long allocatedBytes() {
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	private static void report(Microbenchmark benchmark, double[] result, double[] reference) {
+
+		String line = String.format("%-44s %-20s %14.0f ns/op  +- %-12.0f %12.0f B/op", benchmark.name,
+				benchmark.scenario, result[0], result[1], result[2]);
+
+		if (reference != null) {
+			double change = (result[0] - reference[0]) / reference[0];
+			double noise = 2 * (result[1] + reference[1]);
+
+			line += String.format("  %+6.1f%%", 100 * change);
+
+			if (Math.abs(change) > THRESHOLD && Math.abs(result[0] - reference[0]) > noise) {
+				line += change > 0 ? "  SLOWER" : "  FASTER";
+			}
+		}
+
+		System.out.println(line);
+	}
+
+	private static Map<String, double[]> readBaseline(File file) throws IOException {
+
+		Map<String, double[]> baseline = new HashMap<String, double[]>();
+		BufferedReader reader = new BufferedReader(new FileReader(file));
+
+		try {
+			String line = reader.readLine();
+
+			while ((line = reader.readLine()) != null) {
+				String[] values = line.split(",");
+				baseline.put(values[0] + " " + values[1],
+						new double[] { Double.parseDouble(values[4]), Double.parseDouble(values[5]) });
+			}
+		} finally {
+			reader.close();
+		}
+
+		return baseline;
+	}
+
+	/**
+	 * The benchmarks of one topology.
+	 */
+	private static List<Microbenchmark> create(File file) throws Exception {
+
+		final Topology topology = Parsers.parseTopology(file.getPath());
+		final BenchmarkDistribution distribution = new BenchmarkDistribution(topology, SEED);
+		String name = file.getName().replace(".xml", "");
+
+		List<Microbenchmark> benchmarks = new ArrayList<Microbenchmark>();
+
+		// Reactive agents
+
+		benchmarks.add(new Microbenchmark("RLABehavior.setup", name, true) {
+
+			@Override
+			public Object run() throws Exception {
+				ReactiveBehavior behavior = reactive("reactive.RLABehavior");
+
+				// Solutions are cached by task distribution, which would leave nothing to measure
+				Map<String, String> properties = new HashMap<String, String>();
+				properties.put("solution-cache", "false");
+
+				behavior.setup(topology, distribution, agent(topology, properties));
+				return behavior;
+			}
+		});
+
+		for (final int lanes : new int[] { 1, 4 }) {
+
+			benchmarks.add(new Microbenchmark("RLAModel.sweep[" + lanes + "]", name, false) {
+
+				private Object solution;
+				private Method sweep;
+
+				@Override
+				public void setUp() throws Exception {
+
+					// One sweep of value iteration, for several discount factors, in classes private to the package
+					Class<?> modelClass = Class.forName("reactive.RLAModel");
+					Constructor<?> model = modelClass.getDeclaredConstructor(Topology.class, TaskDistribution.class);
+					model.setAccessible(true);
+
+					double[] discounts = new double[lanes];
+					double[] costs = new double[lanes];
+					for (int l = 0; l < lanes; l++) {
+						discounts[l] = 0.95 - 0.2 * l;
+						costs[l] = BenchmarkVehicle.DEFAULT_COST_PER_KM;
+					}
+
+					Class<?> solutionClass = Class.forName("reactive.RLAModel$Solution");
+					Constructor<?> constructor = solutionClass.getDeclaredConstructor(modelClass, double[].class, double[].class);
+					constructor.setAccessible(true);
+
+					solution = constructor.newInstance(model.newInstance(topology, distribution), discounts, costs);
+					sweep = solutionClass.getDeclaredMethod("sweep");
+					sweep.setAccessible(true);
+				}
+
+				@Override
+				public Object run() throws Exception {
+					return sweep.invoke(solution);
+				}
+			});
+		}
+
+		for (final String className : new String[] { "reactive.RLABehavior", "reactive.GreedyBehavior", "reactive.RandomBehavior" }) {
+
+			benchmarks.add(new Microbenchmark(className.substring(className.indexOf('.') + 1) + ".act", name, false) {
+
+				private ReactiveBehavior behavior;
+				private Vehicle[] vehicles;
+				private Task[] tasks;
+				private int next = 0;
+
+				@Override
+				public void setUp() throws Exception {
+					behavior = reactive(className);
+					behavior.setup(topology, distribution, agent(topology));
+
+					vehicles = new Vehicle[ACT_INPUTS];
+					tasks = new Task[ACT_INPUTS];
+
+					Random random = new Random(SEED);
+					TaskSet universe = TaskSet.create(new Task[0]);
+
+					for (int i = 0; i < ACT_INPUTS; i++) {
+						City city = topology.randomCity(random);
+						vehicles[i] = new BenchmarkVehicle(0, city, universe);
+
+						City destination = topology.randomCity(random);
+						if (destination != city && random.nextDouble() > BenchmarkDistribution.NO_TASK) {
+							tasks[i] = new Task(i, city, destination, distribution.reward(city, destination),
+									distribution.weight(city, destination));
+						}
+					}
+				}
+
+				@Override
+				public Object run() throws Exception {
+					next = (next + 1) % ACT_INPUTS;
+					return behavior.act(vehicles[next], tasks[next]);
+				}
+			});
+		}
+
+		// Centralized planner
+
+		final TaskSet tasks = distribution.tasks(30);
+		final TaskSet fewTasks = distribution.tasks(8);
+
+		for (final String mode : new String[] { "NAIVE", "DECOMPOSITION", "OPTIMAL" }) {
+
+			final TaskSet planned = mode.equals("OPTIMAL") ? fewTasks : tasks;
+			final int vehicleNumber = mode.equals("OPTIMAL") ? 3 : 4;
+
+			benchmarks.add(new Microbenchmark("CentralizedTemplate.plan[" + mode + "/" + planned.size() + "]", name, false) {
+
+				private CentralizedBehavior behavior;
+				private List<Vehicle> vehicles = new ArrayList<Vehicle>();
+
+				@Override
+				public void setUp() throws Exception {
+					Random random = new Random(SEED);
+					for (int v = 0; v < vehicleNumber; v++) {
+						vehicles.add(new BenchmarkVehicle(v, topology.randomCity(random), planned));
+					}
+
+					Map<String, String> properties = new HashMap<String, String>();
+					properties.put("mode", mode);
+
+					behavior = (CentralizedBehavior) Class.forName("template.CentralizedTemplate").getDeclaredConstructor().newInstance();
+					behavior.setup(topology, distribution, new BenchmarkAgent("benchmark", vehicles, planned, properties));
+				}
+
+				@Override
+				public Object run() throws Exception {
+					return behavior.plan(vehicles, planned);
+				}
+			});
+		}
+
+		return benchmarks;
+	}
+
+	private static ReactiveBehavior reactive(String className) throws Exception {
+		return (ReactiveBehavior) Class.forName(className).getDeclaredConstructor().newInstance();
+	}
+
+	/** A single vehicle agent, as in the reactive exercise */
+	private static Agent agent(Topology topology) {
+		return agent(topology, new HashMap<String, String>());
+	}
+
+	private static Agent agent(Topology topology, Map<String, String> properties) {
+
+		TaskSet universe = TaskSet.create(new Task[0]);
+		List<Vehicle> vehicles = new ArrayList<Vehicle>();
+		vehicles.add(new BenchmarkVehicle(0, topology.cities().get(0), universe));
+
+		return new BenchmarkAgent("benchmark", vehicles, universe, properties);
+	}
+}
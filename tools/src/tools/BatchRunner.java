@@ -0,0 +1,94 @@
+package tools;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs all simulations of one or more sweeps without any user interface,
+ * several at a time, and writes their metrics to a single CSV file.
+ *
+ * Usage: java -cp bin tools.BatchRunner results.csv sweep1.xml [sweep2.xml] [...]
+ *
+ * The modules used by the sweeps must have been compiled to their bin/
+ * directory beforehand. Every simulation keeps its files (configuration,
+ * output and, if asked, history) in a directory next to the CSV file.
+ *
+ */
+public class BatchRunner {
+
+	public static void main(String[] args) throws Exception {
+
+		if (args.length < 2) {
+			System.out.println("Usage: java -cp bin tools.BatchRunner results.csv sweep1.xml [sweep2.xml] [...]");
+			System.exit(1);
+		}
+
+		File csv = new File(args[0]).getAbsoluteFile();
+		File runsDirectory = new File(csv.getParentFile(), csv.getName().replace(".csv", "") + "-runs");
+
+		PrintWriter writer = new PrintWriter(csv, "UTF-8");
+		writer.println(SimulationRun.CSV_HEADER);
+
+		long start = System.currentTimeMillis();
+		int total = 0;
+
+		try {
+			for (int i = 1; i < args.length; i++) {
+				total += runSweep(new Sweep(new File(args[i])), runsDirectory, writer);
+			}
+		} finally {
+			writer.close();
+		}
+
+		System.out.println("Ran " + total + " simulations in " + (System.currentTimeMillis() - start) / 1000
+				+ " s. Results written to " + csv);
+	}
+
+	private static int runSweep(Sweep sweep, File runsDirectory, PrintWriter writer) throws Exception {
+
+		List<SimulationRun> runs = sweep.runs(runsDirectory);
+
+		System.out.println("Sweep " + sweep.name + ": " + runs.size() + " simulations on " + sweep.threads
+				+ " threads (module " + sweep.module + ")");
+
+		ExecutorService executor = Executors.newFixedThreadPool(sweep.threads);
+		List<Future<List<String>>> futures = new ArrayList<>();
+
+		for (final SimulationRun run : runs) {
+			futures.add(executor.submit(new Callable<List<String>>() {
+
+				@Override
+				public List<String> call() throws Exception {
+					List<String> rows = run.execute();
+					System.out.println("  run " + run.id + " " + run.status + " in " + run.wallTime + " ms");
+					return rows;
+				}
+			}));
+		}
+
+		try {
+			for (int i = 0; i < runs.size(); i++) {
+				try {
+					for (String row : futures.get(i).get()) {
+						writer.println(row);
+					}
+				} catch (Exception e) {
+					System.out.println("  run " + runs.get(i).id + " could not be executed: " + e.getCause());
+					writer.println(SimulationRun.csv(sweep.name, runs.get(i).id, runs.get(i).configuration,
+							"", "", "", "", "error", 0, 0, 0, 0, 0, 0, 0));
+				}
+				writer.flush();
+			}
+		} finally {
+			executor.shutdown();
+		}
+
+		return runs.size();
+	}
+}
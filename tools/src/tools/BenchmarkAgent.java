@@ -0,0 +1,104 @@
+package tools;
+
+import java.util.List;
+import java.util.Map;
+
+import logist.agent.Agent;
+import logist.agent.AgentStatistics;
+import logist.simulation.Vehicle;
+import logist.task.TaskSet;
+
+/**
+ * An agent whose properties come from a map instead of agents.xml, used to
+ * set up the behaviours outside of a simulation. Its statistics stay at zero.
+ *
+ */
+public class BenchmarkAgent implements Agent {
+
+	private final String name;
+	private final List<Vehicle> vehicles;
+	private final TaskSet tasks;
+	private final Map<String, String> properties;
+
+	public BenchmarkAgent(String name, List<Vehicle> vehicles, TaskSet tasks, Map<String, String> properties) {
+		this.name = name;
+		this.vehicles = vehicles;
+		this.tasks = tasks;
+		this.properties = properties;
+	}
+
+	@Override
+	public int id() {
+		return 0;
+	}
+
+	@Override
+	public String name() {
+		return name;
+	}
+
+	@Override
+	public List<Vehicle> vehicles() {
+		return vehicles;
+	}
+
+	@Override
+	public TaskSet getTasks() {
+		return tasks;
+	}
+
+	@Override
+	public <T> T readProperty(String key, Class<T> type, T defaultValue) {
+
+		String value = properties.get(key);
+
+		if (value == null) {
+			return defaultValue;
+		} else if (type == Double.class) {
+			return type.cast(Double.valueOf(value));
+		} else if (type == Integer.class) {
+			return type.cast(Integer.valueOf(value));
+		} else if (type == Long.class) {
+			return type.cast(Long.valueOf(value));
+		} else if (type == Boolean.class) {
+			return type.cast(Boolean.valueOf(value));
+		} else {
+			return type.cast(value);
+		}
+	}
+
+	@Override
+	public long getTotalDistanceUnits() {
+		return 0;
+	}
+
+	@Override
+	public double getTotalDistance() {
+		return 0;
+	}
+
+	@Override
+	public long getTotalCost() {
+		return 0;
+	}
+
+	@Override
+	public long getTotalReward() {
+		return 0;
+	}
+
+	@Override
+	public long getTotalProfit() {
+		return 0;
+	}
+
+	@Override
+	public int getTotalTasks() {
+		return 0;
+	}
+
+	@Override
+	public int compareTo(AgentStatistics other) {
+		return name.compareTo(other.name());
+	}
+}
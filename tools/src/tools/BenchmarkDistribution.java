@@ -0,0 +1,97 @@
+package tools;
+
+import java.util.List;
+import java.util.Random;
+
+import logist.task.Task;
+import logist.task.TaskDistribution;
+import logist.task.TaskSet;
+import logist.topology.Topology;
+import logist.topology.Topology.City;
+
+/**
+ * A seeded task distribution, used to set up the behaviours outside of a
+ * simulation, uniform like the ones of the configurations. Probabilities are
+ * hashed from the seed instead of being stored, as a table would not fit in
+ * memory for thousands of cities; only their sum per city is kept.
+ *
+ */
+public class BenchmarkDistribution implements TaskDistribution {
+
+	/** Probability that there is no task in a city */
+	public static final double NO_TASK = 0.3;
+
+	private final Topology topology;
+	private final long seed;
+	private final int size;
+	private final double[] totals;
+
+	public BenchmarkDistribution(Topology topology, long seed) {
+
+		this.topology = topology;
+		this.seed = seed;
+		this.size = topology.size();
+		this.totals = new double[size];
+
+		for (int from = 0; from < size; from++) {
+			for (int to = 0; to < size; to++) {
+				totals[from] += draw(from, to);
+			}
+		}
+	}
+
+	@Override
+	public double probability(City from, City to) {
+		if (to == null) {
+			return NO_TASK;
+		}
+		return totals[from.id] == 0 ? 0 : (1 - NO_TASK) * draw(from.id, to.id) / totals[from.id];
+	}
+
+	@Override
+	public int reward(City from, City to) {
+		return (int) Math.max(100, 99999 - 50 * from.distanceTo(to));
+	}
+
+	@Override
+	public int weight(City from, City to) {
+		return 3;
+	}
+
+	/** Unnormalized probability of a task between two cities, in [0, 1) */
+	private double draw(int from, int to) {
+
+		if (from == to) {
+			return 0;
+		}
+
+		long h = seed * 0x9E3779B97F4A7C15L + (long) from * size + to;
+		h = (h ^ (h >>> 30)) * 0xBF58476D1CE4E5B9L;
+		h = (h ^ (h >>> 27)) * 0x94D049BB133111EBL;
+		h = h ^ (h >>> 31);
+
+		return (h >>> 11) / (double) (1L << 53);
+	}
+
+	/**
+	 * Draw tasks between random pairs of distinct cities.
+	 */
+	public TaskSet tasks(int number) {
+
+		Random random = new Random(seed + 2);
+		List<City> cities = topology.cities();
+		Task[] tasks = new Task[number];
+
+		for (int i = 0; i < number; i++) {
+			City from = cities.get(random.nextInt(cities.size()));
+			City to;
+			do {
+				to = cities.get(random.nextInt(cities.size()));
+			} while (to == from);
+
+			tasks[i] = new Task(i, from, to, reward(from, to), weight(from, to));
+		}
+
+		return TaskSet.create(tasks);
+	}
+}
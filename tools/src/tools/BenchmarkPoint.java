@@ -0,0 +1,159 @@
+package tools;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import logist.agent.Agent;
+import logist.behavior.CentralizedBehavior;
+import logist.behavior.DeliberativeBehavior;
+import logist.behavior.ReactiveBehavior;
+import logist.plan.Plan;
+import logist.simulation.Vehicle;
+import logist.task.TaskSet;
+import logist.topology.Topology;
+
+/**
+ * One measurement of the scaling benchmark: sets up a behaviour on a
+ * generated scenario, runs its planner once and prints a single line
+ *
+ *   RESULT topology_ms setup_ms plan_ms heap_mb cost
+ *
+ * It is started in a fresh JVM by ScalingBenchmark, from the directory of the
+ * module of the behaviour, so that measurements do not disturb each other and
+ * a planner that runs out of time can be killed.
+ *
+ * Reactive behaviours only have a setup. Deliberative behaviours plan for the
+ * first vehicle, centralized ones for all vehicles. The cost is the distance
+ * of the plans times the cost per km.
+ *
+ */
+public class BenchmarkPoint {
+
+	public static final String RESULT = "RESULT";
+
+	public static void main(String[] args) throws Exception {
+
+		if (args.length < 7) {
+			System.out.println("Usage: java tools.BenchmarkPoint class name cities tasks vehicles seed"
+					+ " topology-dir [key=value] [...]");
+			System.exit(1);
+		}
+
+		String className = args[0];
+		String name = args[1];
+		int cities = Integer.parseInt(args[2]);
+		int taskNumber = Integer.parseInt(args[3]);
+		int vehicleNumber = Integer.parseInt(args[4]);
+		long seed = Long.parseLong(args[5]);
+		File topologyDirectory = new File(args[6]);
+
+		Map<String, String> properties = new LinkedHashMap<String, String>();
+		for (int i = 7; i < args.length; i++) {
+			String[] pair = args[i].split("=", 2);
+			properties.put(pair[0], pair[1]);
+		}
+
+		// Scenario (the platform computes all shortest paths when parsing)
+
+		long start = System.currentTimeMillis();
+
+		ScenarioGenerator generator = new ScenarioGenerator(cities, seed);
+		Topology topology = generator.topology(topologyDirectory);
+		BenchmarkDistribution distribution = new BenchmarkDistribution(topology, seed);
+		TaskSet tasks = distribution.tasks(taskNumber);
+
+		Random random = new Random(seed + 3);
+		List<Vehicle> vehicles = new ArrayList<Vehicle>();
+		for (int v = 0; v < vehicleNumber; v++) {
+			vehicles.add(new BenchmarkVehicle(v, topology.randomCity(random), tasks));
+		}
+
+		Agent agent = new BenchmarkAgent(name, vehicles, tasks, properties);
+		Object behavior = Class.forName(className).getDeclaredConstructor().newInstance();
+
+		long topologyTime = System.currentTimeMillis() - start;
+
+		// Memory is measured as the peak heap usage above what the scenario uses
+
+		System.gc();
+		long baseline = heapUsed();
+		resetPeaks();
+
+		// Setup
+
+		start = System.currentTimeMillis();
+
+		if (behavior instanceof ReactiveBehavior) {
+			((ReactiveBehavior) behavior).setup(topology, distribution, agent);
+		} else if (behavior instanceof DeliberativeBehavior) {
+			((DeliberativeBehavior) behavior).setup(topology, distribution, agent);
+		} else if (behavior instanceof CentralizedBehavior) {
+			((CentralizedBehavior) behavior).setup(topology, distribution, agent);
+		} else {
+			throw new IllegalArgumentException(className + " is not a reactive, deliberative or centralized behavior.");
+		}
+
+		long setupTime = System.currentTimeMillis() - start;
+
+		// Planning
+
+		start = System.currentTimeMillis();
+
+		List<Plan> plans = new ArrayList<Plan>();
+
+		if (behavior instanceof DeliberativeBehavior) {
+			plans.add(((DeliberativeBehavior) behavior).plan(vehicles.get(0), tasks));
+		} else if (behavior instanceof CentralizedBehavior) {
+			plans.addAll(((CentralizedBehavior) behavior).plan(vehicles, tasks));
+		}
+
+		long planTime = System.currentTimeMillis() - start;
+		long heap = Math.max(0, heapPeak() - baseline);
+
+		double cost = 0;
+		for (int v = 0; v < plans.size(); v++) {
+			cost += plans.get(v).totalDistance() * vehicles.get(v).costPerKm();
+		}
+
+		System.out.println(RESULT + " " + topologyTime + " " + setupTime + " " + planTime + " "
+				+ (heap >> 20) + " " + (plans.isEmpty() ? "" : String.valueOf(Math.round(cost))));
+
+		// Planners may leave non-daemon threads behind
+		System.exit(0);
+	}
+
+	private static List<MemoryPoolMXBean> heapPools() {
+		List<MemoryPoolMXBean> pools = new ArrayList<MemoryPoolMXBean>();
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				pools.add(pool);
+			}
+		}
+		return pools;
+	}
+
+	private static long heapUsed() {
+		return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+	}
+
+	private static void resetPeaks() {
+		for (MemoryPoolMXBean pool : heapPools()) {
+			pool.resetPeakUsage();
+		}
+	}
+
+	private static long heapPeak() {
+		long peak = 0;
+		for (MemoryPoolMXBean pool : heapPools()) {
+			peak += pool.getPeakUsage().getUsed();
+		}
+		return peak;
+	}
+}
@@ -0,0 +1,102 @@
+package tools;
+
+import java.awt.Color;
+
+import logist.simulation.Vehicle;
+import logist.task.TaskSet;
+import logist.topology.Topology.City;
+
+/**
+ * A vehicle used to call the planners outside of a simulation. It stands in
+ * its home city unless it is moved with moveTo.
+ *
+ */
+public class BenchmarkVehicle implements Vehicle {
+
+	public static final int DEFAULT_CAPACITY = 30;
+	public static final int DEFAULT_COST_PER_KM = 5;
+
+	private final int id;
+	private final City home;
+	private final int capacity;
+	private final int costPerKm;
+	private final TaskSet currentTasks;
+	private City currentCity;
+
+	public BenchmarkVehicle(int id, City home, TaskSet universe) {
+		this(id, home, DEFAULT_CAPACITY, DEFAULT_COST_PER_KM, universe);
+	}
+
+	public BenchmarkVehicle(int id, City home, int capacity, int costPerKm, TaskSet universe) {
+		this.id = id;
+		this.home = home;
+		this.capacity = capacity;
+		this.costPerKm = costPerKm;
+		this.currentTasks = TaskSet.noneOf(universe);
+		this.currentCity = home;
+	}
+
+	public void moveTo(City city) {
+		this.currentCity = city;
+	}
+
+	@Override
+	public int id() {
+		return id;
+	}
+
+	@Override
+	public String name() {
+		return "Vehicle " + (id + 1);
+	}
+
+	@Override
+	public int capacity() {
+		return capacity;
+	}
+
+	@Override
+	public City homeCity() {
+		return home;
+	}
+
+	@Override
+	public double speed() {
+		return 220;
+	}
+
+	@Override
+	public int costPerKm() {
+		return costPerKm;
+	}
+
+	@Override
+	public City getCurrentCity() {
+		return currentCity;
+	}
+
+	@Override
+	public TaskSet getCurrentTasks() {
+		return currentTasks;
+	}
+
+	@Override
+	public long getReward() {
+		return 0;
+	}
+
+	@Override
+	public long getDistanceUnits() {
+		return 0;
+	}
+
+	@Override
+	public double getDistance() {
+		return 0;
+	}
+
+	@Override
+	public Color color() {
+		return Color.BLUE;
+	}
+}
@@ -0,0 +1,551 @@
+package tools;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import logist.task.TaskDistribution;
+import logist.topology.Topology;
+import logist.topology.Topology.City;
+
+import org.w3c.dom.Element;
+
+/**
+ * Analyzes the history file of a simulation in one streaming pass, so that
+ * histories of hundreds of MB are read in constant memory: only the state of
+ * every vehicle (city, carried tasks and totals) is kept.
+ *
+ * Usage (from the directory of the module):
+ *
+ *   java -cp ../logist/logist.jar:bin:../tools/bin tools.HistoryAnalyzer [--configuration configuration.xml]
+ *        [--interval time] [--summary summary.csv] [--timeline timeline.csv] [--columns directory] history.xml
+ *
+ * For every vehicle, it reports the distance, the moves made empty (idle
+ * moves), the tasks picked up and delivered, the reward, cost and profit, and
+ * the latency of the tasks (time between their pickup and their delivery).
+ * Times are in the units of the history.
+ *
+ * The timeline holds the cumulative distance, reward and profit of every
+ * vehicle every interval, as CSV or as columns: one file of big-endian values
+ * per column in the given directory, described by schema.csv, which
+ * dashboards can map without parsing.
+ *
+ * The history does not hold the distances, costs per km and rewards of
+ * reactive tasks, they are read from its configuration (by default the one
+ * named in the history, relative to the working directory as for the
+ * platform). A truncated history, from a simulation that was stopped, is
+ * analyzed up to its last complete event.
+ *
+ */
+public class HistoryAnalyzer {
+
+	public static final String SUMMARY_HEADER = "round,agent,vehicle,moves,idle_moves,distance,pickups,deliveries,"
+			+ "reward,cost,profit,mean_latency,max_latency";
+	public static final String TIMELINE_HEADER = "round,time,agent,vehicle,distance,reward,profit";
+
+	public static final long DEFAULT_INTERVAL = 100000000000L;
+
+	private final Topology topology;
+	private final TaskDistribution distribution;
+
+	/** Cities by name, and by name as written in the history (non-ASCII characters replaced by '?') */
+	private final Map<String, City> cities = new HashMap<String, City>();
+
+	/** Home city and cost per km of every vehicle of the configuration, by name */
+	private final Map<String, City> homes = new HashMap<String, City>();
+	private final Map<String, Integer> costs = new HashMap<String, Integer>();
+
+	private long interval = DEFAULT_INTERVAL;
+	private PrintWriter summary;
+	private PrintWriter timeline;
+	private Columns columns;
+
+	/** Vehicles of the history, in order */
+	private final Map<String, VehicleState> vehicles = new LinkedHashMap<String, VehicleState>();
+
+	/** Tasks listed in the current round, by id */
+	private final Map<Integer, TaskInfo> tasks = new HashMap<Integer, TaskInfo>();
+
+	private int round = 0;
+	private long nextTime;
+	private long events = 0;
+
+	public HistoryAnalyzer(Topology topology, TaskDistribution distribution) {
+		this.topology = topology;
+		this.distribution = distribution;
+
+		for (City city : topology.cities()) {
+			cities.put(city.name, city);
+			cities.put(city.name.replaceAll("[^\\x00-\\x7F]", "?"), city);
+		}
+	}
+
+	/**
+	 * A vehicle of the history, with its position and its totals in the current round.
+	 */
+	static class VehicleState {
+
+		final int index;
+		final String name;
+		String agent = "";
+		int costPerKm = 0;
+		City home;
+
+		City city;
+		long moves;
+		long idleMoves;
+		double distance;
+		long pickups;
+		long deliveries;
+		long reward;
+		double latency;
+		long maxLatency;
+
+		/** Tasks in the vehicle: their pickup time and the id of their pickup city (or -1), by id */
+		final Map<Integer, long[]> carried = new HashMap<Integer, long[]>();
+
+		VehicleState(int index, String name) {
+			this.index = index;
+			this.name = name;
+		}
+
+		void reset() {
+			city = home;
+			moves = idleMoves = pickups = deliveries = reward = maxLatency = 0;
+			distance = latency = 0;
+			carried.clear();
+		}
+
+		double profit() {
+			return reward - distance * costPerKm;
+		}
+	}
+
+	/**
+	 * A task listed in a round of the history.
+	 */
+	static class TaskInfo {
+
+		final City pickup;
+		final City delivery;
+		final long reward;
+
+		TaskInfo(City pickup, City delivery, long reward) {
+			this.pickup = pickup;
+			this.delivery = delivery;
+			this.reward = reward;
+		}
+	}
+
+	/**
+	 * Read the vehicles of a configuration: their home city and cost per km.
+	 */
+	void readVehicles(File configuration) throws Exception {
+
+		Element root = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(configuration).getDocumentElement();
+
+		for (Element vehicle : Sweep.children(root, "vehicle")) {
+			for (Element set : Sweep.children(vehicle, "set")) {
+
+				if (set.hasAttribute("home")) {
+					homes.put(vehicle.getAttribute("name"), city(set.getAttribute("home")));
+				}
+				if (set.hasAttribute("cost-per-km")) {
+					costs.put(vehicle.getAttribute("name"), Integer.parseInt(set.getAttribute("cost-per-km")));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Analyze a history in one pass.
+	 *
+	 * @return false if the history was truncated
+	 */
+	public boolean analyze(File history) throws IOException {
+
+		InputStream input = new BufferedInputStream(new FileInputStream(history), 1 << 16);
+
+		try {
+			XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(input);
+			String agent = null;
+
+			try {
+				while (reader.hasNext()) {
+
+					if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+						continue;
+					}
+
+					switch (reader.getLocalName()) {
+					case "agent":
+						agent = reader.getAttributeValue(null, "name");
+						break;
+					case "vehicle":
+						vehicle(reader.getAttributeValue(null, "name")).agent = agent;
+						break;
+					case "round":
+						endRound();
+						startRound();
+						break;
+					case "task":
+						tasks.put(Integer.parseInt(reader.getAttributeValue(null, "id")), new TaskInfo(
+								city(reader.getAttributeValue(null, "pickup")),
+								city(reader.getAttributeValue(null, "delivery")),
+								Long.parseLong(reader.getAttributeValue(null, "reward"))));
+						break;
+					case "event":
+						event(reader);
+						break;
+					default:
+						break;
+					}
+				}
+			} catch (XMLStreamException e) {
+				System.out.println("The history is truncated after " + events + " events: " + e.getMessage());
+				endRound();
+				return false;
+			}
+
+			endRound();
+			return true;
+
+		} catch (XMLStreamException e) {
+			throw new IOException("Could not read " + history, e);
+		} finally {
+			input.close();
+		}
+	}
+
+	private VehicleState vehicle(String name) {
+
+		VehicleState vehicle = vehicles.get(name);
+
+		if (vehicle == null) {
+			vehicle = new VehicleState(vehicles.size(), name);
+			vehicle.home = homes.get(name);
+			vehicle.city = vehicle.home;
+			vehicle.costPerKm = costs.containsKey(name) ? costs.get(name) : 0;
+			vehicles.put(name, vehicle);
+		}
+
+		return vehicle;
+	}
+
+	private City city(String name) {
+
+		City city = cities.get(name);
+
+		if (city == null) {
+			throw new IllegalArgumentException("Unknown city " + name + " in " + topology);
+		}
+
+		return city;
+	}
+
+	private void startRound() {
+
+		round++;
+		tasks.clear();
+		nextTime = interval;
+
+		for (VehicleState vehicle : vehicles.values()) {
+			vehicle.reset();
+		}
+	}
+
+	private void event(XMLStreamReader reader) throws IOException {
+
+		long time = Long.parseLong(reader.getAttributeValue(null, "time"));
+		VehicleState vehicle = vehicle(reader.getAttributeValue(null, "vehicle"));
+
+		// Events are in order of time: close the intervals that ended before this one
+		while (time >= nextTime) {
+			writeTimeline(nextTime);
+			nextTime += interval;
+		}
+
+		events++;
+
+		String move = reader.getAttributeValue(null, "move");
+		String pickup = reader.getAttributeValue(null, "pickup");
+		String deliver = reader.getAttributeValue(null, "deliver");
+
+		if (move != null) {
+
+			City city = city(move);
+
+			vehicle.moves++;
+			if (vehicle.carried.isEmpty()) {
+				vehicle.idleMoves++;
+			}
+
+			if (vehicle.city != null) {
+				vehicle.distance += vehicle.city.distanceTo(city);
+			}
+			vehicle.city = city;
+
+		} else if (pickup != null) {
+
+			int id = Integer.parseInt(pickup);
+			vehicle.pickups++;
+			vehicle.carried.put(id, new long[] { time, vehicle.city == null ? -1 : vehicle.city.id });
+
+		} else if (deliver != null) {
+
+			int id = Integer.parseInt(deliver);
+			long[] task = vehicle.carried.remove(id);
+
+			vehicle.deliveries++;
+			vehicle.reward += reward(id, task, vehicle.city);
+
+			if (task != null) {
+				long latency = time - task[0];
+				vehicle.latency += latency;
+				vehicle.maxLatency = Math.max(vehicle.maxLatency, latency);
+			}
+		}
+	}
+
+	/**
+	 * @return the reward of a delivered task: the one of the task listed in the round
+	 *         if it was carried between the same cities, or the one of the task
+	 *         distribution otherwise, as reactive tasks are not listed
+	 */
+	private long reward(int id, long[] carried, City delivery) {
+
+		if (carried == null || carried[1] < 0 || delivery == null) {
+			return 0;
+		}
+
+		TaskInfo task = tasks.get(id);
+
+		if (task != null && task.pickup.id == carried[1] && task.delivery == delivery) {
+			return task.reward;
+		}
+
+		return distribution.reward(topology.cities().get((int) carried[1]), delivery);
+	}
+
+	private void writeTimeline(long time) throws IOException {
+
+		for (VehicleState vehicle : vehicles.values()) {
+
+			if (timeline != null) {
+				timeline.println(SimulationRun.csv(round, time, vehicle.agent, vehicle.name,
+						vehicle.distance, vehicle.reward, vehicle.profit()));
+			}
+
+			if (columns != null) {
+				columns.write(round, time, vehicle.index, vehicle.distance, vehicle.reward, vehicle.profit());
+			}
+		}
+	}
+
+	private void endRound() throws IOException {
+
+		if (round == 0) {
+			return;
+		}
+
+		writeTimeline(nextTime);
+		nextTime = Long.MAX_VALUE;
+
+		System.out.println(String.format("Round %d: %d events", round, events));
+		System.out.println(String.format("%-24s %-12s %10s %10s %12s %10s %12s %14s %16s", "agent", "vehicle",
+				"moves", "idle", "distance", "tasks", "reward", "profit", "mean latency"));
+
+		for (VehicleState vehicle : vehicles.values()) {
+
+			double meanLatency = vehicle.deliveries == 0 ? Double.NaN : vehicle.latency / vehicle.deliveries;
+
+			System.out.println(String.format("%-24s %-12s %10d %10d %12.1f %10d %12d %14.1f %16.0f", vehicle.agent,
+					vehicle.name, vehicle.moves, vehicle.idleMoves, vehicle.distance, vehicle.deliveries,
+					vehicle.reward, vehicle.profit(), meanLatency));
+
+			if (summary != null) {
+				summary.println(SimulationRun.csv(round, vehicle.agent, vehicle.name, vehicle.moves, vehicle.idleMoves,
+						vehicle.distance, vehicle.pickups, vehicle.deliveries, vehicle.reward,
+						vehicle.distance * vehicle.costPerKm, vehicle.profit(), meanLatency, vehicle.maxLatency));
+			}
+		}
+	}
+
+	/**
+	 * The timeline as columns: every column is written to its own file as it
+	 * comes, so that the memory does not depend on the length of the history.
+	 */
+	static class Columns {
+
+		static final String[] NAMES = { "round", "time", "vehicle", "distance", "reward", "profit" };
+		static final String[] TYPES = { "int32", "int64", "int32", "float64", "int64", "float64" };
+
+		final File directory;
+		final DataOutputStream[] outputs = new DataOutputStream[NAMES.length];
+		long rows = 0;
+
+		Columns(File directory) throws IOException {
+
+			this.directory = directory;
+
+			if (!directory.isDirectory() && !directory.mkdirs()) {
+				throw new IOException("Could not create " + directory);
+			}
+
+			for (int c = 0; c < NAMES.length; c++) {
+				outputs[c] = new DataOutputStream(new BufferedOutputStream(
+						new FileOutputStream(new File(directory, NAMES[c] + ".bin")), 1 << 16));
+			}
+		}
+
+		void write(int round, long time, int vehicle, double distance, long reward, double profit) throws IOException {
+			outputs[0].writeInt(round);
+			outputs[1].writeLong(time);
+			outputs[2].writeInt(vehicle);
+			outputs[3].writeDouble(distance);
+			outputs[4].writeLong(reward);
+			outputs[5].writeDouble(profit);
+			rows++;
+		}
+
+		/**
+		 * Close the columns, and describe them and the vehicles next to them.
+		 */
+		void close(Iterable<VehicleState> vehicles) throws IOException {
+
+			for (DataOutputStream output : outputs) {
+				output.close();
+			}
+
+			PrintWriter schema = new PrintWriter(new File(directory, "schema.csv"), "UTF-8");
+			try {
+				schema.println("column,file,type,rows");
+				for (int c = 0; c < NAMES.length; c++) {
+					schema.println(SimulationRun.csv(NAMES[c], NAMES[c] + ".bin", TYPES[c], rows));
+				}
+			} finally {
+				schema.close();
+			}
+
+			PrintWriter names = new PrintWriter(new File(directory, "vehicles.csv"), "UTF-8");
+			try {
+				names.println("vehicle,agent,name");
+				for (VehicleState vehicle : vehicles) {
+					names.println(SimulationRun.csv(vehicle.index, vehicle.agent, vehicle.name));
+				}
+			} finally {
+				names.close();
+			}
+		}
+	}
+
+	/**
+	 * @return the configuration named in a history, read from its root element
+	 */
+	private static File configurationOf(File history) throws Exception {
+
+		InputStream input = new FileInputStream(history);
+
+		try {
+			XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(input);
+
+			while (reader.hasNext()) {
+				if (reader.next() == XMLStreamConstants.START_ELEMENT) {
+					String configuration = reader.getAttributeValue(null, "configuration");
+
+					if (configuration == null) {
+						throw new IllegalArgumentException(history + " does not name its configuration, use --configuration.");
+					}
+					return new File(configuration);
+				}
+			}
+		} finally {
+			input.close();
+		}
+
+		throw new IllegalArgumentException(history + " is empty.");
+	}
+
+	public static void main(String[] args) throws Exception {
+
+		File configuration = null;
+		File summaryFile = null;
+		File timelineFile = null;
+		File columnsDirectory = null;
+		long interval = DEFAULT_INTERVAL;
+		List<String> arguments = new ArrayList<String>();
+
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+			case "--configuration": configuration = new File(args[++i]); break;
+			case "--interval": interval = Long.parseLong(args[++i]); break;
+			case "--summary": summaryFile = new File(args[++i]); break;
+			case "--timeline": timelineFile = new File(args[++i]); break;
+			case "--columns": columnsDirectory = new File(args[++i]); break;
+			default: arguments.add(args[i]); break;
+			}
+		}
+
+		if (arguments.size() != 1) {
+			System.out.println("Usage: java tools.HistoryAnalyzer [--configuration configuration.xml] [--interval time]"
+					+ " [--summary summary.csv] [--timeline timeline.csv] [--columns directory] history.xml");
+			System.exit(1);
+		}
+
+		File history = new File(arguments.get(0));
+
+		if (configuration == null) {
+			configuration = configurationOf(history);
+		}
+
+		ScenarioSnapshot.Scenario scenario = ScenarioSnapshot.load(configuration);
+
+		HistoryAnalyzer analyzer = new HistoryAnalyzer(scenario.topology, scenario.distribution);
+		analyzer.readVehicles(configuration);
+		analyzer.interval = Math.max(1, interval);
+
+		try {
+			if (summaryFile != null) {
+				analyzer.summary = new PrintWriter(summaryFile, "UTF-8");
+				analyzer.summary.println(SUMMARY_HEADER);
+			}
+			if (timelineFile != null) {
+				analyzer.timeline = new PrintWriter(timelineFile, "UTF-8");
+				analyzer.timeline.println(TIMELINE_HEADER);
+			}
+			if (columnsDirectory != null) {
+				analyzer.columns = new Columns(columnsDirectory);
+			}
+
+			analyzer.analyze(history);
+
+		} finally {
+			if (analyzer.summary != null) {
+				analyzer.summary.close();
+			}
+			if (analyzer.timeline != null) {
+				analyzer.timeline.close();
+			}
+			if (analyzer.columns != null) {
+				analyzer.columns.close(analyzer.vehicles.values());
+			}
+		}
+	}
+}
@@ -0,0 +1,38 @@
+package tools;
+
+/**
+ * One operation measured by AgentBenchmarks, such as the setup of a behaviour
+ * or a single call to act(). The state needed by the operation is built in
+ * setUp(), which is not measured.
+ *
+ */
+public abstract class Microbenchmark {
+
+	public final String name;
+	/** The topology the operation runs on */
+	public final String scenario;
+
+	/**
+	 * Operations that take seconds are run once per iteration (single shot),
+	 * the others as many times as fit in the iteration time.
+	 */
+	public final boolean singleShot;
+
+	public Microbenchmark(String name, String scenario, boolean singleShot) {
+		this.name = name;
+		this.scenario = scenario;
+		this.singleShot = singleShot;
+	}
+
+	public void setUp() throws Exception { }
+
+	/**
+	 * Run the operation once. The result is consumed by the runner so that
+	 * the JIT cannot remove the work.
+	 */
+	public abstract Object run() throws Exception;
+
+	public String id() {
+		return name + " " + scenario;
+	}
+}
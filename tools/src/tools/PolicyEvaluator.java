@@ -0,0 +1,450 @@
+package tools;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+
+import logist.behavior.ReactiveBehavior;
+import logist.plan.ActionHandler;
+import logist.simulation.Vehicle;
+import logist.task.Task;
+import logist.task.TaskDistribution;
+import logist.task.TaskSet;
+import logist.topology.Topology;
+import logist.topology.Topology.City;
+
+/**
+ * Evaluates reactive behaviours by Monte Carlo simulation, without the
+ * platform: tasks are drawn from the probabilities, rewards and weights of
+ * the task distribution, the behaviour chooses an action, and the vehicle
+ * moves instantly. This runs millions of act() steps per second instead of
+ * the few steps per second of the animated simulation.
+ *
+ * Usage (from the reactive directory):
+ *
+ *   java -cp ../logist/logist.jar:bin:../tools/bin tools.PolicyEvaluator [--threads n] [--episodes n]
+ *        [--steps n] [--seed n] [--csv results.csv] configuration.xml agent [...]
+ *
+ * Agents are looked up by name in the agents file of the configuration, so
+ * their class and properties are the ones of the simulation. The scenario is
+ * loaded through ScenarioSnapshot.
+ *
+ * Every episode starts from a random city and lasts a fixed number of steps.
+ * The expected reward per km and profit per step are the means over the
+ * episodes, reported with a 95% confidence interval. Episodes are run in
+ * parallel, each thread with its own instance of the behaviour, and every
+ * episode draws its tasks from its own seed, so results do not depend on the
+ * number of threads (except for behaviours that use their own random numbers).
+ *
+ */
+public class PolicyEvaluator {
+
+	public static final String CSV_HEADER = "agent,class,episodes,steps,reward_per_km,reward_per_km_ci,"
+			+ "profit_per_step,profit_per_step_ci,steps_per_second";
+
+	/** Quantile of the normal distribution for a 95% confidence interval */
+	private static final double Z_95 = 1.96;
+
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private int episodes = 1000;
+	private int steps = 10000;
+	private long seed = ScenarioGenerator.DEFAULT_SEED;
+
+	private final Topology topology;
+	private final TaskDistribution distribution;
+	private final List<City> cities;
+
+	/** Cumulative probabilities of the destinations of a task from every city, by city id */
+	private final double[][] cumulative;
+	private final double[][] distances;
+	private final int[][] rewards;
+	private final int[][] weights;
+
+	public PolicyEvaluator(Topology topology, TaskDistribution distribution) {
+		this.topology = topology;
+		this.distribution = distribution;
+		this.cities = topology.cities();
+
+		int n = cities.size();
+		cumulative = new double[n][n];
+		distances = new double[n][n];
+		rewards = new int[n][n];
+		weights = new int[n][n];
+
+		for (City from : cities) {
+			double total = 0;
+
+			for (City to : cities) {
+				if (from != to) {
+					total += distribution.probability(from, to);
+					rewards[from.id][to.id] = distribution.reward(from, to);
+					weights[from.id][to.id] = distribution.weight(from, to);
+				}
+				cumulative[from.id][to.id] = total;
+				distances[from.id][to.id] = from.distanceTo(to);
+			}
+		}
+	}
+
+	/**
+	 * The result of evaluating one behaviour.
+	 */
+	public static class Result {
+
+		public final int episodes;
+		public final long steps;
+		public final double rewardPerKm;
+		public final double rewardPerKmInterval;
+		public final double profitPerStep;
+		public final double profitPerStepInterval;
+		public final double stepsPerSecond;
+
+		Result(double[] rewardPerKm, double[] profitPerStep, long steps, long time) {
+			this.episodes = rewardPerKm.length;
+			this.steps = steps;
+			this.rewardPerKm = mean(rewardPerKm);
+			this.rewardPerKmInterval = interval(rewardPerKm);
+			this.profitPerStep = mean(profitPerStep);
+			this.profitPerStepInterval = interval(profitPerStep);
+			this.stepsPerSecond = steps * 1e9 / Math.max(1, time);
+		}
+	}
+
+	/**
+	 * Evaluate a behaviour, creating one instance per thread.
+	 *
+	 * @param className the class of the behaviour
+	 * @param properties the properties of the agent
+	 */
+	public Result evaluate(final String className, final Map<String, String> properties) throws Exception {
+
+		final double[] rewardPerKm = new double[episodes];
+		final double[] profitPerStep = new double[episodes];
+		final AtomicInteger nextEpisode = new AtomicInteger();
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Future<Long>> futures = new ArrayList<Future<Long>>();
+
+		try {
+			for (int t = 0; t < threads; t++) {
+				final int worker = t;
+
+				futures.add(executor.submit(new Callable<Long>() {
+
+					@Override
+					public Long call() throws Exception {
+
+						TaskSet universe = TaskSet.create(new Task[0]);
+						BenchmarkVehicle vehicle = new BenchmarkVehicle(0, cities.get(0), universe);
+						List<Vehicle> vehicles = new ArrayList<Vehicle>();
+						vehicles.add(vehicle);
+
+						ReactiveBehavior behavior = (ReactiveBehavior) Class.forName(className).getDeclaredConstructor().newInstance();
+						behavior.setup(topology, distribution,
+								new BenchmarkAgent("evaluator-" + worker, vehicles, universe, properties));
+
+						long time = 0;
+						int episode;
+
+						while ((episode = nextEpisode.getAndIncrement()) < episodes) {
+							long episodeStart = System.nanoTime();
+							double[] result = episode(behavior, vehicle, new Random(seed + episode));
+							time += System.nanoTime() - episodeStart;
+
+							rewardPerKm[episode] = result[1] > 0 ? result[0] / result[1] : 0;
+							profitPerStep[episode] = (result[0] - result[1] * vehicle.costPerKm()) / steps;
+						}
+
+						return time;
+					}
+				}));
+			}
+
+			// Threads run side by side, so the time is the average time a thread
+			// spent in episodes, without the setup of the behaviours
+			long time = 0;
+			for (Future<Long> future : futures) {
+				time += future.get();
+			}
+			time /= threads;
+
+			return new Result(rewardPerKm, profitPerStep, (long) episodes * steps, time);
+
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Run one episode from a random city.
+	 *
+	 * @return the total reward and the total distance (in km)
+	 */
+	private double[] episode(ReactiveBehavior behavior, BenchmarkVehicle vehicle, Random random) {
+
+		vehicle.moveTo(cities.get(random.nextInt(cities.size())));
+
+		double reward = 0;
+		double distance = 0;
+
+		for (int step = 0; step < steps; step++) {
+
+			City from = vehicle.getCurrentCity();
+			Task task = null;
+
+			int to = destination(from.id, random.nextDouble());
+			if (to >= 0) {
+				task = new Task(step, from, cities.get(to), rewards[from.id][to], weights[from.id][to]);
+			}
+
+			Outcome outcome = new Outcome(from, task);
+			City next = behavior.act(vehicle, task).accept(outcome);
+
+			if (outcome.pickup) {
+				reward += task.reward;
+			}
+
+			distance += distances[from.id][next.id];
+			vehicle.moveTo(next);
+		}
+
+		return new double[] { reward, distance };
+	}
+
+	/**
+	 * @return the destination of the task drawn from a city for a uniform
+	 *         number u in [0, 1), or -1 if there is no task
+	 */
+	private int destination(int from, double u) {
+
+		double[] row = cumulative[from];
+
+		if (u >= row[row.length - 1]) {
+			return -1;
+		}
+
+		int low = 0;
+		int high = row.length - 1;
+
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (row[middle] > u) {
+				high = middle;
+			} else {
+				low = middle + 1;
+			}
+		}
+
+		return low;
+	}
+
+	/**
+	 * The city where an action leaves the vehicle, checking that the action
+	 * would be accepted by the platform.
+	 */
+	private static class Outcome implements ActionHandler<City> {
+
+		private final City from;
+		private final Task task;
+		private boolean pickup = false;
+
+		Outcome(City from, Task task) {
+			this.from = from;
+			this.task = task;
+		}
+
+		@Override
+		public City moveTo(City city) {
+			if (!from.hasNeighbor(city)) {
+				throw new IllegalStateException("Move from " + from + " to " + city + ", which is not a neighbor.");
+			}
+			return city;
+		}
+
+		@Override
+		public City pickup(Task picked) {
+			if (picked != task) {
+				throw new IllegalStateException("Pickup of " + picked + ", which is not the available task.");
+			}
+			pickup = true;
+			return picked.deliveryCity;
+		}
+
+		@Override
+		public City deliver(Task delivered) {
+			throw new IllegalStateException("Reactive agents cannot deliver tasks themselves.");
+		}
+	}
+
+	private static double mean(double[] values) {
+		double sum = 0;
+		for (double value : values) {
+			sum += value;
+		}
+		return sum / values.length;
+	}
+
+	/** Half-width of the 95% confidence interval of the mean */
+	private static double interval(double[] values) {
+
+		if (values.length < 2) {
+			return Double.NaN;
+		}
+
+		double mean = mean(values);
+		double variance = 0;
+		for (double value : values) {
+			variance += (value - mean) * (value - mean) / (values.length - 1);
+		}
+
+		return Z_95 * Math.sqrt(variance / values.length);
+	}
+
+	/**
+	 * The class name and properties of every agent of an agents file, by name.
+	 */
+	static Map<String, Map<String, String>> readAgents(File file) throws Exception {
+
+		Map<String, Map<String, String>> agents = new LinkedHashMap<String, Map<String, String>>();
+		Element root = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(file).getDocumentElement();
+
+		for (Element agent : Sweep.children(root, "agent")) {
+			Map<String, String> properties = new LinkedHashMap<String, String>();
+
+			for (Element set : Sweep.children(agent, "set")) {
+				NamedNodeMap attributes = set.getAttributes();
+				for (int i = 0; i < attributes.getLength(); i++) {
+					properties.put(attributes.item(i).getNodeName(), attributes.item(i).getNodeValue());
+				}
+			}
+
+			agents.put(agent.getAttribute("name"), properties);
+		}
+
+		return agents;
+	}
+
+	/**
+	 * The agents file imported by a configuration, relative to the working
+	 * directory as for the platform.
+	 */
+	private static File agentsFile(File configuration) throws Exception {
+
+		Element root = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(configuration).getDocumentElement();
+
+		for (Element element : Sweep.children(root, "agents")) {
+			if (element.hasAttribute("import")) {
+				return new File(element.getAttribute("import"));
+			}
+		}
+
+		throw new IllegalArgumentException(configuration + " does not import an agents file.");
+	}
+
+	public static void main(String[] args) throws Exception {
+
+		int threads = Runtime.getRuntime().availableProcessors();
+		int episodes = 1000;
+		int steps = 10000;
+		long seed = ScenarioGenerator.DEFAULT_SEED;
+		File csv = null;
+		List<String> arguments = new ArrayList<String>();
+
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+			case "--threads": threads = Integer.parseInt(args[++i]); break;
+			case "--episodes": episodes = Integer.parseInt(args[++i]); break;
+			case "--steps": steps = Integer.parseInt(args[++i]); break;
+			case "--seed": seed = Long.parseLong(args[++i]); break;
+			case "--csv": csv = new File(args[++i]); break;
+			default: arguments.add(args[i]); break;
+			}
+		}
+
+		if (arguments.size() < 2) {
+			System.out.println("Usage: java tools.PolicyEvaluator [--threads n] [--episodes n] [--steps n] [--seed n]"
+					+ " [--csv results.csv] configuration.xml agent [...]");
+			System.exit(1);
+		}
+
+		File configuration = new File(arguments.get(0));
+		Map<String, Map<String, String>> agents = readAgents(agentsFile(configuration));
+
+		ScenarioSnapshot.Scenario scenario = ScenarioSnapshot.load(configuration);
+
+		PolicyEvaluator evaluator = new PolicyEvaluator(scenario.topology, scenario.distribution);
+		evaluator.threads = Math.max(1, threads);
+		evaluator.episodes = Math.max(1, episodes);
+		evaluator.steps = Math.max(1, steps);
+		evaluator.seed = seed;
+
+		PrintWriter writer = csv == null ? null : new PrintWriter(csv, "UTF-8");
+		if (writer != null) {
+			writer.println(CSV_HEADER);
+		}
+
+		System.out.println(String.format("%-20s %24s %24s %14s", "agent", "reward/km", "profit/step", "steps/s"));
+
+		PrintStream out = System.out;
+
+		try {
+			for (String name : arguments.subList(1, arguments.size())) {
+
+				Map<String, String> properties = agents.get(name);
+				if (properties == null || !properties.containsKey("class-name")) {
+					throw new IllegalArgumentException("Unknown agent " + name + " in the agents file of " + configuration);
+				}
+
+				String className = properties.get("class-name");
+				Result result;
+
+				// The behaviours print their profit at every step
+				System.setOut(new PrintStream(new OutputStream() {
+
+					@Override
+					public void write(int b) { }
+
+					@Override
+					public void write(byte[] b, int off, int len) { }
+				}));
+
+				try {
+					result = evaluator.evaluate(className, properties);
+				} finally {
+					System.setOut(out);
+				}
+
+				System.out.println(String.format("%-20s %12.2f +- %-8.2f %12.2f +- %-8.2f %14.0f", name,
+						result.rewardPerKm, result.rewardPerKmInterval, result.profitPerStep,
+						result.profitPerStepInterval, result.stepsPerSecond));
+
+				if (writer != null) {
+					writer.println(SimulationRun.csv(name, className, result.episodes, result.steps, result.rewardPerKm,
+							result.rewardPerKmInterval, result.profitPerStep, result.profitPerStepInterval,
+							Math.round(result.stepsPerSecond)));
+					writer.flush();
+				}
+			}
+		} finally {
+			if (writer != null) {
+				writer.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,246 @@
+package tools;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+
+/**
+ * Measures how the planners scale with the size of the topology and the
+ * number of tasks, on generated scenarios. The planners are read from an XML
+ * file such as:
+ *
+ * <pre>
+ * &lt;benchmark name="scaling" logist="../../logist/logist.jar" timeout="120" seed="12345"&gt;
+ *     &lt;planner name="decomposition" module="../../centralized" class="template.CentralizedTemplate"
+ *              cities="50 200 1000" tasks="100 1000" vehicles="4"&gt;
+ *         &lt;set mode="DECOMPOSITION" /&gt;
+ *     &lt;/planner&gt;
+ * &lt;/benchmark&gt;
+ * </pre>
+ *
+ * Usage: java -cp logist.jar:bin tools.ScalingBenchmark results.csv benchmark.xml
+ *
+ * Every (cities, tasks) point runs in its own JVM, one after the other, and
+ * gives one CSV row with the time to load the topology, the setup and
+ * planning times, the peak heap used by the planner and the cost of the plan.
+ * Once a point fails or runs out of time, the larger points of the same
+ * planner are skipped.
+ *
+ */
+public class ScalingBenchmark {
+
+	public static final String CSV_HEADER =
+			"benchmark,planner,cities,tasks,vehicles,status,wall_ms,topology_ms,setup_ms,plan_ms,heap_mb,cost";
+
+	public static void main(String[] args) throws Exception {
+
+		if (args.length < 2) {
+			System.out.println("Usage: java -cp logist.jar:bin tools.ScalingBenchmark results.csv benchmark.xml");
+			System.exit(1);
+		}
+
+		File csv = new File(args[0]).getAbsoluteFile();
+		File file = new File(args[1]).getAbsoluteFile();
+		File base = file.getParentFile();
+
+		Element root = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(file).getDocumentElement();
+
+		String name = attribute(root, "name", file.getName().replace(".xml", ""));
+		File logist = new File(base, attribute(root, "logist", "../logist/logist.jar")).getCanonicalFile();
+		long timeout = Long.parseLong(attribute(root, "timeout", "120"));
+		long seed = Long.parseLong(attribute(root, "seed", String.valueOf(ScenarioGenerator.DEFAULT_SEED)));
+		String jvmArgs = attribute(root, "jvm-args", "");
+
+		// Generated topologies are shared by all planners
+		File topologies = new File(csv.getParentFile(), csv.getName().replace(".csv", "") + "-topologies");
+		if (!topologies.isDirectory() && !topologies.mkdirs()) {
+			throw new IOException("Could not create " + topologies);
+		}
+
+		PrintWriter writer = new PrintWriter(csv, "UTF-8");
+		writer.println(CSV_HEADER);
+
+		try {
+			for (Element planner : Sweep.children(root, "planner")) {
+
+				String plannerName = planner.getAttribute("name");
+				File module = new File(base, attribute(planner, "module", ".")).getCanonicalFile();
+				String className = planner.getAttribute("class");
+				int vehicles = Integer.parseInt(attribute(planner, "vehicles", "1"));
+
+				Map<String, String> properties = new LinkedHashMap<String, String>();
+				for (Element set : Sweep.children(planner, "set")) {
+					NamedNodeMap attributes = set.getAttributes();
+					for (int i = 0; i < attributes.getLength(); i++) {
+						properties.put(attributes.item(i).getNodeName(), attributes.item(i).getNodeValue());
+					}
+				}
+
+				List<int[]> failures = new ArrayList<int[]>();
+
+				for (int cities : integers(attribute(planner, "cities", "50"))) {
+					for (int tasks : integers(attribute(planner, "tasks", "0"))) {
+
+						String prefix = SimulationRun.csv(name, plannerName, cities, tasks, vehicles);
+
+						if (dominates(failures, cities, tasks)) {
+							writer.println(prefix + ",skipped,0,,,,,");
+							continue;
+						}
+
+						ScenarioGenerator generator = new ScenarioGenerator(cities, seed);
+						File topology = new File(topologies, "topology-" + cities + "-" + seed + ".xml");
+						if (!topology.exists()) {
+							generator.writeTopology(topology);
+						}
+
+						List<String> command = new ArrayList<String>();
+						command.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+
+						for (String arg : jvmArgs.trim().split("\\s+")) {
+							if (!arg.isEmpty()) {
+								command.add(arg);
+							}
+						}
+
+						command.add("-Djava.awt.headless=true");
+						command.add("-classpath");
+						command.add(logist.getPath() + File.pathSeparator + new File(module, "bin").getPath()
+								+ File.pathSeparator + classPath());
+						command.add(BenchmarkPoint.class.getName());
+						command.add(className);
+						command.add(plannerName);
+						command.add(String.valueOf(cities));
+						command.add(String.valueOf(tasks));
+						command.add(String.valueOf(vehicles));
+						command.add(String.valueOf(seed));
+						command.add(topologies.getPath());
+
+						for (Map.Entry<String, String> property : properties.entrySet()) {
+							command.add(property.getKey() + "=" + property.getValue());
+						}
+
+						String row = run(command, module, timeout);
+
+						System.out.println(plannerName + " " + cities + " cities, " + tasks + " tasks: " + row);
+						writer.println(prefix + "," + row);
+						writer.flush();
+
+						if (!row.startsWith("done")) {
+							failures.add(new int[] { cities, tasks });
+						}
+					}
+				}
+			}
+		} finally {
+			writer.close();
+		}
+
+		System.out.println("Results written to " + csv);
+	}
+
+	/**
+	 * Run one point and return the end of its CSV row, from the status on.
+	 */
+	private static String run(List<String> command, File module, long timeout) throws Exception {
+
+		ProcessBuilder builder = new ProcessBuilder(command);
+		builder.directory(module);
+		builder.redirectErrorStream(true);
+
+		long start = System.currentTimeMillis();
+		final Process process = builder.start();
+		final String[] result = new String[2];
+
+		// The output is read while the point runs, so that it cannot block on a full pipe
+		Thread reader = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					BufferedReader output = new BufferedReader(new InputStreamReader(process.getInputStream()));
+					String line;
+					while ((line = output.readLine()) != null) {
+						if (line.startsWith(BenchmarkPoint.RESULT + " ")) {
+							result[0] = line;
+						} else if (!line.startsWith("Reading ") && !line.startsWith("\tat ")) {
+							result[1] = line;
+						}
+					}
+				} catch (IOException e) {
+					// The process was killed
+				}
+			}
+		});
+		reader.start();
+
+		String status;
+		if (process.waitFor(timeout, TimeUnit.SECONDS)) {
+			reader.join();
+			status = process.exitValue() == 0 && result[0] != null ? "done" : "failed";
+		} else {
+			process.destroyForcibly().waitFor();
+			reader.join();
+			status = "timeout";
+		}
+
+		long wallTime = System.currentTimeMillis() - start;
+
+		if (!status.equals("done")) {
+			if (result[1] != null) {
+				System.out.println("  last output: " + result[1]);
+			}
+			return status + "," + wallTime + ",,,,,";
+		}
+
+		String[] values = result[0].split(" ", -1);
+		return status + "," + wallTime + "," + values[1] + "," + values[2] + "," + values[3] + ","
+				+ values[4] + "," + values[5];
+	}
+
+	/** The class path of this JVM, made absolute as the points run from the module directories */
+	private static String classPath() {
+		StringBuilder builder = new StringBuilder();
+		for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+			if (builder.length() > 0) {
+				builder.append(File.pathSeparator);
+			}
+			builder.append(new File(entry).getAbsolutePath());
+		}
+		return builder.toString();
+	}
+
+	/** Whether a smaller point already failed */
+	private static boolean dominates(List<int[]> failures, int cities, int tasks) {
+		for (int[] failure : failures) {
+			if (failure[0] <= cities && failure[1] <= tasks) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static List<Integer> integers(String values) {
+		List<Integer> integers = new ArrayList<Integer>();
+		for (String value : values.trim().split("\\s+")) {
+			integers.add(Integer.parseInt(value));
+		}
+		return integers;
+	}
+
+	private static String attribute(Element element, String name, String defaultValue) {
+		return element.hasAttribute(name) ? element.getAttribute(name) : defaultValue;
+	}
+}
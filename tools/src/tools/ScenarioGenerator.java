@@ -0,0 +1,313 @@
+package tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import logist.config.Parsers;
+import logist.topology.Topology;
+
+/**
+ * Generates random topologies and configurations of any size, so that the
+ * agents can be run on much larger instances than the hand-written
+ * topologies. Tasks over a generated topology can be drawn outside of a
+ * simulation with BenchmarkDistribution.
+ *
+ * Usage: java -cp logist.jar:bin tools.ScenarioGenerator output-dir mode cities tasks
+ *                                     [companies] [vehicles-per-company] [seed]
+ *
+ * writes output-dir/topology.xml and output-dir/configuration.xml, which can
+ * be run from the directory of the module of the given mode.
+ *
+ * Cities are spread uniformly on a square whose side grows with the square
+ * root of their number, so that the density stays close to the one of the
+ * real topologies. Every city is linked to its nearest neighbours, and the
+ * minimum spanning tree is added to make sure the topology is connected.
+ * The same seed always gives the same scenario.
+ *
+ */
+public class ScenarioGenerator {
+
+	public static final long DEFAULT_SEED = 12345;
+
+	/** Average distance between neighbouring cities, as in the real topologies */
+	private static final int SPACING = 100;
+
+	/** Number of nearest neighbours every city is linked to */
+	private static final int NEIGHBORS = 3;
+
+	public final int size;
+	public final long seed;
+
+	private final int[] x;
+	private final int[] y;
+
+	public ScenarioGenerator(int size, long seed) {
+
+		if (size < 2) {
+			throw new IllegalArgumentException("A topology needs at least two cities.");
+		}
+
+		this.size = size;
+		this.seed = seed;
+		this.x = new int[size];
+		this.y = new int[size];
+
+		Random random = new Random(seed);
+		int side = (int) Math.ceil(SPACING * Math.sqrt(size));
+
+		for (int i = 0; i < size; i++) {
+			x[i] = random.nextInt(side);
+			y[i] = random.nextInt(side);
+		}
+	}
+
+	public static String cityName(int i) {
+		return "City " + i;
+	}
+
+	/**
+	 * The routes of the topology, as pairs of city indices. Finding the
+	 * neighbours and the spanning tree takes O(n^2) time, which stays below
+	 * a second for 5000 cities.
+	 */
+	public List<int[]> routes() {
+
+		boolean[][] linked = new boolean[size][];
+		for (int i = 0; i < size; i++) {
+			linked[i] = new boolean[i];
+		}
+
+		List<int[]> routes = new ArrayList<int[]>();
+
+		// Nearest neighbours
+		int k = Math.min(NEIGHBORS, size - 1);
+		int[] nearest = new int[k];
+		long[] nearestDistance = new long[k];
+
+		for (int i = 0; i < size; i++) {
+			Arrays.fill(nearestDistance, Long.MAX_VALUE);
+
+			for (int j = 0; j < size; j++) {
+				if (i == j) {
+					continue;
+				}
+
+				long d = squaredDistance(i, j);
+
+				// Keep the k nearest sorted by insertion
+				int position = k;
+				while (position > 0 && d < nearestDistance[position - 1]) {
+					position--;
+				}
+
+				if (position < k) {
+					System.arraycopy(nearest, position, nearest, position + 1, k - position - 1);
+					System.arraycopy(nearestDistance, position, nearestDistance, position + 1, k - position - 1);
+					nearest[position] = j;
+					nearestDistance[position] = d;
+				}
+			}
+
+			for (int j : nearest) {
+				link(i, j, linked, routes);
+			}
+		}
+
+		// Minimum spanning tree (Prim)
+		boolean[] inTree = new boolean[size];
+		long[] best = new long[size];
+		int[] parent = new int[size];
+		Arrays.fill(best, Long.MAX_VALUE);
+		best[0] = 0;
+		parent[0] = -1;
+
+		for (int step = 0; step < size; step++) {
+			int next = -1;
+			for (int i = 0; i < size; i++) {
+				if (!inTree[i] && (next == -1 || best[i] < best[next])) {
+					next = i;
+				}
+			}
+
+			inTree[next] = true;
+			if (parent[next] >= 0) {
+				link(next, parent[next], linked, routes);
+			}
+
+			for (int i = 0; i < size; i++) {
+				long d = squaredDistance(next, i);
+				if (!inTree[i] && d < best[i]) {
+					best[i] = d;
+					parent[i] = next;
+				}
+			}
+		}
+
+		return routes;
+	}
+
+	private void link(int i, int j, boolean[][] linked, List<int[]> routes) {
+		int a = Math.max(i, j);
+		int b = Math.min(i, j);
+
+		if (!linked[a][b]) {
+			linked[a][b] = true;
+			routes.add(new int[] { a, b });
+		}
+	}
+
+	private long squaredDistance(int i, int j) {
+		long dx = x[i] - x[j];
+		long dy = y[i] - y[j];
+		return dx * dx + dy * dy;
+	}
+
+	/** Length of a route, never zero as two cities may share a position */
+	private long distance(int i, int j) {
+		return Math.max(1, Math.round(Math.sqrt(squaredDistance(i, j))));
+	}
+
+	/**
+	 * Write the topology in the format of config/topology/.
+	 */
+	public void writeTopology(File file) throws IOException {
+
+		PrintWriter writer = new PrintWriter(file, "ISO-8859-1");
+
+		try {
+			writer.println("<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?>");
+			writer.println();
+			writer.println("<topology name=\"generated-" + size + "-" + seed + "\" >");
+			writer.println();
+			writer.println("\t<!-- the list of cities in the topology -->");
+			writer.println("\t<cities>");
+
+			for (int i = 0; i < size; i++) {
+				writer.println("\t\t<city x=\"" + x[i] + "\" y=\"" + y[i] + "\" name=\"" + cityName(i) + "\"/>");
+			}
+
+			writer.println("\t</cities>");
+			writer.println();
+			writer.println("\t<!-- the list of routes in the topology -->");
+			writer.println("\t<routes>");
+
+			for (int[] route : routes()) {
+				writer.println("\t\t<route distance=\"" + distance(route[0], route[1]) + "\" from=\""
+						+ cityName(route[0]) + "\" to=\"" + cityName(route[1]) + "\"/>");
+			}
+
+			writer.println("\t</routes>");
+			writer.println("</topology>");
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Write a configuration using the given topology, with one company per
+	 * agent and vehicles starting from random cities. The tasks are drawn by
+	 * the platform from the number and seed given here.
+	 */
+	public void writeConfiguration(File file, File topology, String mode, int tasks, int companies,
+			int vehiclesPerCompany) throws IOException {
+
+		Random random = new Random(seed + 1);
+		PrintWriter writer = new PrintWriter(file, "UTF-8");
+
+		try {
+			writer.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+			writer.println();
+			writer.println("<!-- a generated configuration with " + size + " cities and " + tasks + " tasks -->");
+			writer.println("<configuration name=\"generated\" mode=\"" + mode + "\">");
+			writer.println();
+			writer.println("\t<!-- global settings -->");
+			writer.println("\t<settings import=\"config/settings_default.xml\" />");
+			writer.println();
+			writer.println("\t<!-- load the topology -->");
+			writer.println("\t<topology import=\"" + topology.getAbsolutePath() + "\" />");
+			writer.println();
+			writer.println("\t<!-- load agents -->");
+			writer.println("\t<agents import=\"config/agents.xml\" />");
+			writer.println();
+			writer.println("\t<!-- define task distribution -->");
+			writer.println("\t<tasks number=\"" + tasks + "\" rngSeed=\"" + seed + "\">");
+			writer.println("\t\t<probability distribution=\"uniform\" min=\"0.0\" max=\"1.0\" />");
+			writer.println("\t\t<reward distribution=\"constant\" policy=\"short-distances\" min=\"100\" max=\"99999\" />");
+			writer.println("\t\t<weight distribution=\"constant\" value=\"3\" />");
+			writer.println("\t</tasks>");
+			writer.println();
+			writer.println("\t<!-- the companies and vehicles in the simulation -->");
+			writer.println("\t<companies>");
+
+			for (int c = 0; c < companies; c++) {
+				writer.println("\t\t<company name=\"Company " + (char) ('A' + c % 26) + (c < 26 ? "" : c / 26) + "\">");
+
+				for (int v = 0; v < vehiclesPerCompany; v++) {
+					writer.println("\t\t\t<vehicle name=\"Vehicle " + (c * vehiclesPerCompany + v + 1) + "\">");
+					writer.println("\t\t\t\t<set color=\"#" + String.format("%06x", random.nextInt(0x1000000)) + "\" />");
+					writer.println("\t\t\t\t<set home=\"" + cityName(random.nextInt(size)) + "\" />");
+					writer.println("\t\t\t\t<set speed=\"220\" />");
+					writer.println("\t\t\t\t<set capacity=\"30\" />");
+					writer.println("\t\t\t\t<set cost-per-km=\"5\" />");
+					writer.println("\t\t\t</vehicle>");
+				}
+
+				writer.println("\t\t</company>");
+			}
+
+			writer.println("\t</companies>");
+			writer.println();
+			writer.println("</configuration>");
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Build the topology through the platform parser, which also checks that
+	 * the generated file is valid.
+	 */
+	public Topology topology(File directory) throws Exception {
+		File file = new File(directory, "topology-" + size + "-" + seed + ".xml");
+		if (!file.exists()) {
+			writeTopology(file);
+		}
+		return Parsers.parseTopology(file.getPath());
+	}
+
+	public static void main(String[] args) throws Exception {
+
+		if (args.length < 4) {
+			System.out.println("Usage: java -cp logist.jar:bin tools.ScenarioGenerator output-dir mode cities tasks"
+					+ " [companies] [vehicles-per-company] [seed]");
+			System.exit(1);
+		}
+
+		File directory = new File(args[0]);
+		String mode = args[1];
+		int cities = Integer.parseInt(args[2]);
+		int tasks = Integer.parseInt(args[3]);
+		int companies = args.length > 4 ? Integer.parseInt(args[4]) : 1;
+		int vehicles = args.length > 5 ? Integer.parseInt(args[5]) : 1;
+		long seed = args.length > 6 ? Long.parseLong(args[6]) : DEFAULT_SEED;
+
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Could not create " + directory);
+		}
+
+		long start = System.currentTimeMillis();
+
+		ScenarioGenerator generator = new ScenarioGenerator(cities, seed);
+		File topology = new File(directory, "topology.xml");
+		generator.writeTopology(topology);
+		generator.writeConfiguration(new File(directory, "configuration.xml"), topology, mode, tasks, companies, vehicles);
+
+		System.out.println("Generated " + cities + " cities and " + tasks + " tasks in "
+				+ (System.currentTimeMillis() - start) + " ms in " + directory);
+	}
+}
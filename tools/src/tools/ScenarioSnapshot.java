@@ -0,0 +1,441 @@
+package tools;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.w3c.dom.Element;
+
+import logist.config.Parsers;
+import logist.simulation.Manager;
+import logist.task.TaskDistribution;
+import logist.topology.Topology;
+import logist.topology.Topology.City;
+
+/**
+ * A binary snapshot of a configuration: its cities, routes, distance matrix
+ * and task distribution tables, written once and then memory-mapped, so that
+ * the tools can load a scenario without parsing any XML.
+ *
+ * Usage (from the directory of the module): java -cp logist.jar:bin tools.ScenarioSnapshot configuration.xml [...]
+ *
+ * writes configuration.snapshot next to every configuration.
+ *
+ * The snapshot records the size and modification time of the files it was
+ * compiled from (configuration, settings, topology and agents). If any of
+ * them changed, or the format version differs, the snapshot is stale and
+ * load() falls back to the XML files, then writes a fresh snapshot.
+ *
+ * Layout (big endian): a header with the magic number, the version, the
+ * number of cities and routes and the offset of every section, the source
+ * files, then the sections: city names, coordinates, routes, distances
+ * (n x n doubles, in km), probabilities (n x (n + 1) doubles, the last column
+ * being the probability of no task), rewards and weights (n x n ints). The
+ * tables are read in place from the mapped file.
+ *
+ * Note that building a Topology from a snapshot still goes through the
+ * platform, which computes all shortest paths itself. Distances and the task
+ * distribution are read directly from the snapshot.
+ *
+ */
+public class ScenarioSnapshot {
+
+	public static final int MAGIC = 0x4C534E50;
+	public static final int VERSION = 1;
+	public static final String EXTENSION = ".snapshot";
+
+	/** Header: magic, version, cities, routes and the offsets of the 8 sections */
+	private static final int HEADER_SIZE = 4 * 4 + 8 * 4;
+
+	private final MappedByteBuffer buffer;
+	private final int size;
+	private final int routes;
+
+	private final int sources;
+	private final int names;
+	private final int coordinates;
+	private final int routeTable;
+	private final int distances;
+	private final int probabilities;
+	private final int rewards;
+	private final int weights;
+
+	private ScenarioSnapshot(MappedByteBuffer buffer) {
+		this.buffer = buffer;
+		this.size = buffer.getInt(8);
+		this.routes = buffer.getInt(12);
+		this.sources = buffer.getInt(16);
+		this.names = buffer.getInt(20);
+		this.coordinates = buffer.getInt(24);
+		this.routeTable = buffer.getInt(28);
+		this.distances = buffer.getInt(32);
+		this.probabilities = buffer.getInt(36);
+		this.rewards = buffer.getInt(40);
+		this.weights = buffer.getInt(44);
+	}
+
+	/**
+	 * A topology and task distribution, from a snapshot or from the XML files.
+	 */
+	public static class Scenario {
+
+		public final Topology topology;
+		public final TaskDistribution distribution;
+		public final boolean fromSnapshot;
+
+		Scenario(Topology topology, TaskDistribution distribution, boolean fromSnapshot) {
+			this.topology = topology;
+			this.distribution = distribution;
+			this.fromSnapshot = fromSnapshot;
+		}
+	}
+
+	public static File snapshotFile(File configuration) {
+		return new File(configuration.getPath().replaceAll("\\.xml$", "") + EXTENSION);
+	}
+
+	/**
+	 * Load a configuration from its snapshot if it is up to date, or from its
+	 * XML files otherwise, in which case the snapshot is written again.
+	 * Relative paths in the configuration are resolved from the working
+	 * directory, as by the platform.
+	 */
+	public static Scenario load(File configuration) throws Exception {
+
+		File file = snapshotFile(configuration);
+		ScenarioSnapshot snapshot = open(file);
+
+		if (snapshot != null) {
+			Topology topology = snapshot.topology();
+			return new Scenario(topology, snapshot.distribution(topology), true);
+		}
+
+		Manager manager = Parsers.parseConfiguration(configuration.getPath(), null, new String[0]);
+
+		try {
+			write(file, configuration, manager.getTopology(), manager.getTaskDistribution());
+		} catch (IOException e) {
+			System.out.println("Could not write the snapshot " + file + ": " + e.getMessage());
+		}
+
+		return new Scenario(manager.getTopology(), manager.getTaskDistribution(), false);
+	}
+
+	/**
+	 * Parse a configuration and write its snapshot.
+	 */
+	public static void compile(File configuration) throws Exception {
+		Manager manager = Parsers.parseConfiguration(configuration.getPath(), null, new String[0]);
+		write(snapshotFile(configuration), configuration, manager.getTopology(), manager.getTaskDistribution());
+	}
+
+	/**
+	 * Map a snapshot.
+	 *
+	 * @return the snapshot, or null if it is missing, of another version, or
+	 *         older than the files it was compiled from
+	 */
+	public static ScenarioSnapshot open(File file) throws IOException {
+
+		if (!file.isFile() || file.length() < HEADER_SIZE) {
+			return null;
+		}
+
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		MappedByteBuffer buffer;
+
+		try {
+			// The mapping stays valid after the channel is closed
+			buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+		} finally {
+			raf.close();
+		}
+
+		if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+			return null;
+		}
+
+		ScenarioSnapshot snapshot = new ScenarioSnapshot(buffer);
+		return snapshot.isFresh() ? snapshot : null;
+	}
+
+	private boolean isFresh() {
+
+		ByteBuffer view = buffer.duplicate();
+		view.position(sources);
+		int count = view.getInt();
+
+		for (int i = 0; i < count; i++) {
+			File source = new File(readString(view));
+			long length = view.getLong();
+			long modified = view.getLong();
+
+			if (!source.isFile() || source.length() != length || source.lastModified() != modified) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/** Distance in km of the shortest path between two cities */
+	public double distance(int from, int to) {
+		return buffer.getDouble(distances + 8 * (from * size + to));
+	}
+
+	/** Probability of a task between two cities, or of no task if to is size() */
+	public double probability(int from, int to) {
+		return buffer.getDouble(probabilities + 8 * (from * (size + 1) + to));
+	}
+
+	public int reward(int from, int to) {
+		return buffer.getInt(rewards + 4 * (from * size + to));
+	}
+
+	public int weight(int from, int to) {
+		return buffer.getInt(weights + 4 * (from * size + to));
+	}
+
+	/**
+	 * Build the topology of the snapshot. City ids are the same as in the
+	 * original topology.
+	 */
+	public Topology topology() {
+
+		ByteBuffer view = buffer.duplicate();
+		view.position(names);
+
+		String[] cityNames = new String[size];
+		Topology.Builder builder = new Topology.Builder();
+
+		for (int i = 0; i < size; i++) {
+			cityNames[i] = readString(view);
+			builder.addCity(cityNames[i], buffer.getInt(coordinates + 8 * i), buffer.getInt(coordinates + 8 * i + 4));
+		}
+
+		for (int r = 0; r < routes; r++) {
+			int offset = routeTable + 16 * r;
+			builder.addRoute(cityNames[buffer.getInt(offset)], cityNames[buffer.getInt(offset + 4)],
+					buffer.getLong(offset + 8));
+		}
+
+		return builder.build();
+	}
+
+	/**
+	 * The task distribution of the snapshot, read from the mapped tables.
+	 */
+	public TaskDistribution distribution(Topology topology) {
+
+		return new TaskDistribution() {
+
+			@Override
+			public double probability(City from, City to) {
+				return ScenarioSnapshot.this.probability(from.id, to == null ? size : to.id);
+			}
+
+			@Override
+			public int reward(City from, City to) {
+				return to == null ? 0 : ScenarioSnapshot.this.reward(from.id, to.id);
+			}
+
+			@Override
+			public int weight(City from, City to) {
+				return to == null ? 0 : ScenarioSnapshot.this.weight(from.id, to.id);
+			}
+		};
+	}
+
+	/**
+	 * Write the snapshot of a parsed configuration.
+	 */
+	static void write(File file, File configuration, Topology topology, TaskDistribution distribution)
+			throws Exception {
+
+		List<City> cities = topology.cities();
+		int n = cities.size();
+
+		// Routes, each stored once with its length in distance units
+		List<long[]> routeList = new ArrayList<long[]>();
+		for (City city : cities) {
+			for (City neighbor : city.neighbors()) {
+				if (city.id < neighbor.id) {
+					routeList.add(new long[] { city.id, neighbor.id, city.distanceUnitsTo(neighbor) });
+				}
+			}
+		}
+
+		byte[] sourceBytes = sources(configuration);
+		byte[] nameBytes = names(cities);
+
+		long sourcesOffset = HEADER_SIZE;
+		long namesOffset = sourcesOffset + sourceBytes.length;
+		long coordinatesOffset = namesOffset + nameBytes.length;
+		long routesOffset = coordinatesOffset + 8L * n;
+		long distancesOffset = routesOffset + 16L * routeList.size();
+		long probabilitiesOffset = distancesOffset + 8L * n * n;
+		long rewardsOffset = probabilitiesOffset + 8L * n * (n + 1);
+		long weightsOffset = rewardsOffset + 4L * n * n;
+		long end = weightsOffset + 4L * n * n;
+
+		if (end > Integer.MAX_VALUE) {
+			throw new IOException("A snapshot of " + n + " cities would not fit in a mapped file.");
+		}
+
+		// Written to a temporary file first, so that a snapshot is never seen half written
+		File temporary = new File(file.getPath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)));
+
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(n);
+			out.writeInt(routeList.size());
+			for (long offset : new long[] { sourcesOffset, namesOffset, coordinatesOffset, routesOffset,
+					distancesOffset, probabilitiesOffset, rewardsOffset, weightsOffset }) {
+				out.writeInt((int) offset);
+			}
+
+			out.write(sourceBytes);
+			out.write(nameBytes);
+
+			for (City city : cities) {
+				out.writeInt(city.xPos);
+				out.writeInt(city.yPos);
+			}
+
+			for (long[] route : routeList) {
+				out.writeInt((int) route[0]);
+				out.writeInt((int) route[1]);
+				out.writeLong(route[2]);
+			}
+
+			for (City from : cities) {
+				for (City to : cities) {
+					out.writeDouble(from.distanceTo(to));
+				}
+			}
+
+			for (City from : cities) {
+				for (City to : cities) {
+					out.writeDouble(distribution.probability(from, to));
+				}
+				out.writeDouble(distribution.probability(from, null));
+			}
+
+			for (City from : cities) {
+				for (City to : cities) {
+					out.writeInt(distribution.reward(from, to));
+				}
+			}
+
+			for (City from : cities) {
+				for (City to : cities) {
+					out.writeInt(distribution.weight(from, to));
+				}
+			}
+		} finally {
+			out.close();
+		}
+
+		if (file.exists() && !file.delete() || !temporary.renameTo(file)) {
+			throw new IOException("Could not replace " + file);
+		}
+	}
+
+	/**
+	 * The files a configuration is made of, with their size and modification
+	 * time. Imports are relative to the working directory, as for the platform.
+	 */
+	private static byte[] sources(File configuration) throws Exception {
+
+		List<File> files = new ArrayList<File>();
+		files.add(configuration);
+
+		Element root = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(configuration).getDocumentElement();
+
+		for (String tag : new String[] { "settings", "topology", "agents" }) {
+			for (Element element : Sweep.children(root, tag)) {
+				if (element.hasAttribute("import")) {
+					files.add(new File(element.getAttribute("import")));
+				}
+			}
+		}
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+
+		out.writeInt(files.size());
+		for (File source : files) {
+			writeString(out, source.getPath());
+			out.writeLong(source.length());
+			out.writeLong(source.lastModified());
+		}
+
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	private static byte[] names(List<City> cities) throws IOException {
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+
+		for (City city : cities) {
+			writeString(out, city.name);
+		}
+
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(ByteBuffer view) {
+		byte[] bytes = new byte[view.getInt()];
+		view.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	public static void main(String[] args) throws Exception {
+
+		if (args.length < 1) {
+			System.out.println("Usage: java -cp logist.jar:bin tools.ScenarioSnapshot configuration.xml [...]");
+			System.exit(1);
+		}
+
+		for (String arg : args) {
+			File configuration = new File(arg);
+
+			long start = System.nanoTime();
+			compile(configuration);
+			long compiled = System.nanoTime();
+
+			Scenario scenario = load(configuration);
+			long loaded = System.nanoTime();
+
+			System.out.println("Compiled " + snapshotFile(configuration) + " (" + snapshotFile(configuration).length()
+					+ " bytes) in " + (compiled - start) / 1000000 + " ms, loaded " + scenario.topology.size()
+					+ " cities from it in " + (loaded - compiled) / 1000000 + " ms");
+		}
+	}
+}
@@ -0,0 +1,362 @@
+package tools;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * One simulation of a sweep. The simulation runs in its own JVM, from the
+ * directory of the module, with a copy of the configuration that points to
+ * headless settings, the requested topology and seed, and an agents file
+ * holding the requested parameters.
+ *
+ */
+public class SimulationRun {
+
+	public static final String CSV_HEADER =
+			"sweep,run,configuration,topology,seed,parameters,agent,status,wall_ms,profit,distance,tasks,actions,planning_ms,plans";
+
+	/* Lines printed by the agents of this repository */
+	private static final Pattern REACTIVE = Pattern.compile(
+			"^(.+?): The total profit after (\\d+) actions is (-?\\d+) \\(average profit: [^,]+, total distance: ([-\\d.E]+)\\)");
+	private static final Pattern DELIBERATIVE = Pattern.compile(
+			"^(.+?) - .+?: Found plan in \\d+ steps \\((\\d+)ms\\)\\. Plan has total distance ([-\\d.E]+)");
+	private static final Pattern CENTRALIZED = Pattern.compile(
+			"^(.+?): The plan was generated in (\\d+) milliseconds\\.");
+
+	final Sweep sweep;
+	final int id;
+	final File directory;
+	final String configuration;
+	final String topology;
+	final String seed;
+	final String[] agents;
+	final Map<String, String> parameters;
+
+	String status = "pending";
+	long wallTime = 0;
+
+	public SimulationRun(Sweep sweep, int id, File directory, String configuration, String topology,
+			String seed, String[] agents, Map<String, String> parameters) {
+		this.sweep = sweep;
+		this.id = id;
+		this.directory = directory;
+		this.configuration = configuration;
+		this.topology = topology;
+		this.seed = seed;
+		this.agents = agents;
+		this.parameters = parameters;
+	}
+
+	/**
+	 * Write the configuration, settings and agents files of this run.
+	 */
+	public File prepare() throws Exception {
+
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Could not create " + directory);
+		}
+
+		Document config = parse(new File(sweep.module, configuration));
+		Element root = config.getDocumentElement();
+
+		// Settings, with the user interface turned off
+
+		Element settingsImport = (Element) root.getElementsByTagName("settings").item(0);
+		Document settings = parse(new File(sweep.module, settingsImport.getAttribute("import")));
+
+		for (Element set : Sweep.children(settings.getDocumentElement(), "set")) {
+			if (set.hasAttribute("flag-show-ui")) {
+				set.getParentNode().removeChild(set);
+			}
+		}
+
+		Element headless = settings.createElement("set");
+		headless.setAttribute("flag-show-ui", "false");
+		settings.getDocumentElement().appendChild(headless);
+
+		File settingsFile = new File(directory, "settings.xml");
+		write(settings, settingsFile);
+		settingsImport.setAttribute("import", settingsFile.getAbsolutePath());
+
+		// Topology, moving the vehicles if their home is not in it
+
+		Element topologyImport = (Element) root.getElementsByTagName("topology").item(0);
+		String topologyPath = topology == null ? topologyImport.getAttribute("import") : topology;
+		File topologyFile = new File(sweep.module, topologyPath);
+		topologyImport.setAttribute("import", topologyFile.getAbsolutePath());
+
+		if (topology != null) {
+			List<String> cities = new ArrayList<>();
+			for (Element city : Sweep.children(parse(topologyFile).getDocumentElement(), "city")) {
+				cities.add(city.getAttribute("name"));
+			}
+
+			int vehicle = 0;
+			for (Element set : Sweep.children(root, "set")) {
+				if (set.hasAttribute("home")) {
+					if (!cities.contains(set.getAttribute("home"))) {
+						set.setAttribute("home", cities.get(vehicle % cities.size()));
+					}
+					vehicle++;
+				}
+			}
+		}
+
+		// Seed of the task generator
+
+		Element tasks = (Element) root.getElementsByTagName("tasks").item(0);
+		if (seed != null) {
+			tasks.setAttribute("rngSeed", seed);
+		}
+
+		// Agents, with the parameters of this run
+
+		Element agentsImport = (Element) root.getElementsByTagName("agents").item(0);
+		Document agentsDocument = parse(new File(sweep.module, agentsImport.getAttribute("import")));
+
+		for (Element agent : Sweep.children(agentsDocument.getDocumentElement(), "agent")) {
+			for (Element set : Sweep.children(agent, "set")) {
+				for (Map.Entry<String, String> parameter : parameters.entrySet()) {
+					if (set.hasAttribute(parameter.getKey())) {
+						set.setAttribute(parameter.getKey(), parameter.getValue());
+					}
+				}
+			}
+		}
+
+		File agentsFile = new File(directory, "agents.xml");
+		write(agentsDocument, agentsFile);
+		agentsImport.setAttribute("import", agentsFile.getAbsolutePath());
+
+		File configFile = new File(directory, "configuration.xml");
+		write(config, configFile);
+
+		return configFile;
+	}
+
+	/**
+	 * Run the simulation in a new JVM, stopping it after the timeout of the
+	 * sweep, and collect one row of metrics per agent.
+	 */
+	public List<String> execute() throws Exception {
+
+		File configFile = prepare();
+		File history = new File(directory, "history.xml");
+		File output = new File(directory, "output.txt");
+
+		List<String> command = new ArrayList<>();
+		command.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+
+		for (String arg : sweep.jvmArgs.trim().split("\\s+")) {
+			if (!arg.isEmpty()) {
+				command.add(arg);
+			}
+		}
+
+		command.add("-Djava.awt.headless=true");
+		command.add("-classpath");
+		command.add(sweep.logist.getPath() + File.pathSeparator + "bin");
+		command.add("logist.LogistPlatform");
+		command.add("-o");
+		command.add(history.getAbsolutePath());
+		command.add(configFile.getAbsolutePath());
+
+		for (String agent : agents) {
+			command.add(agent);
+		}
+
+		ProcessBuilder builder = new ProcessBuilder(command);
+		builder.directory(sweep.module);
+		builder.redirectErrorStream(true);
+		builder.redirectOutput(output);
+
+		long start = System.currentTimeMillis();
+		Process process = builder.start();
+
+		if (process.waitFor(sweep.timeout, TimeUnit.SECONDS)) {
+			status = process.exitValue() == 0 ? "done" : "failed";
+		} else {
+			process.destroyForcibly().waitFor();
+			status = "timeout";
+		}
+
+		wallTime = System.currentTimeMillis() - start;
+
+		Map<String, Metrics> metrics = new LinkedHashMap<>();
+		for (String agent : agents) {
+			metrics.put(agent, new Metrics());
+		}
+
+		readOutput(output, metrics);
+
+		if (status.equals("done") && history.exists()) {
+			readStatistics(history, metrics);
+		}
+
+		if (!sweep.keepHistory) {
+			history.delete();
+		}
+
+		List<String> rows = new ArrayList<>();
+
+		for (Map.Entry<String, Metrics> entry : metrics.entrySet()) {
+			Metrics m = entry.getValue();
+
+			rows.add(csv(sweep.name, id, configuration, topology == null ? "" : topology, seed == null ? "" : seed,
+					describe(parameters), entry.getKey(), status, wallTime, m.profit, m.distance, m.tasks,
+					m.actions, m.planningTime, m.plans));
+		}
+
+		return rows;
+	}
+
+	/**
+	 * Read the last profit reported by each reactive agent, and the planning
+	 * time of deliberative and centralized agents.
+	 */
+	private void readOutput(File output, Map<String, Metrics> metrics) throws IOException {
+
+		BufferedReader reader = new BufferedReader(new FileReader(output));
+
+		try {
+			String line;
+
+			while ((line = reader.readLine()) != null) {
+				Matcher matcher;
+
+				if ((matcher = REACTIVE.matcher(line)).find() && metrics.containsKey(matcher.group(1))) {
+					Metrics m = metrics.get(matcher.group(1));
+					m.actions = Long.parseLong(matcher.group(2));
+					m.profit = Long.parseLong(matcher.group(3));
+					m.distance = Double.parseDouble(matcher.group(4));
+				} else if ((matcher = DELIBERATIVE.matcher(line)).find() && metrics.containsKey(matcher.group(1))) {
+					Metrics m = metrics.get(matcher.group(1));
+					m.planningTime += Long.parseLong(matcher.group(2));
+					m.plans++;
+				} else if ((matcher = CENTRALIZED.matcher(line)).find() && metrics.containsKey(matcher.group(1))) {
+					Metrics m = metrics.get(matcher.group(1));
+					m.planningTime += Long.parseLong(matcher.group(2));
+					m.plans++;
+				}
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Read the final statistics of a finished simulation from its history.
+	 * The history is streamed, as it can be very large.
+	 */
+	private void readStatistics(File history, Map<String, Metrics> metrics) throws Exception {
+
+		InputStream input = new FileInputStream(history);
+
+		try {
+			XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(input);
+			Metrics current = null;
+
+			while (reader.hasNext()) {
+
+				if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+					continue;
+				}
+
+				String tag = reader.getLocalName();
+
+				if (tag.equals("stat")) {
+					current = metrics.get(reader.getAttributeValue(null, "agent"));
+				} else if (current != null) {
+					String value = reader.getAttributeValue(null, "value");
+
+					switch (tag) {
+					case "total-tasks": current.tasks = Long.parseLong(value); break;
+					case "total-distance": current.distance = Double.parseDouble(value); break;
+					case "total-profit": current.profit = Long.parseLong(value); break;
+					default: break;
+					}
+				}
+			}
+		} finally {
+			input.close();
+		}
+	}
+
+	private static String describe(Map<String, String> parameters) {
+
+		StringBuilder builder = new StringBuilder();
+
+		for (Map.Entry<String, String> parameter : parameters.entrySet()) {
+			if (builder.length() > 0) {
+				builder.append(';');
+			}
+			builder.append(parameter.getKey()).append('=').append(parameter.getValue());
+		}
+		return builder.toString();
+	}
+
+	static String csv(Object... values) {
+
+		StringBuilder builder = new StringBuilder();
+
+		for (Object value : values) {
+			if (builder.length() > 0) {
+				builder.append(',');
+			}
+
+			String text = String.valueOf(value);
+			if (text.contains(",") || text.contains("\"")) {
+				text = "\"" + text.replace("\"", "\"\"") + "\"";
+			}
+			builder.append(text);
+		}
+		return builder.toString();
+	}
+
+	private static Document parse(File file) throws Exception {
+		return DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(file);
+	}
+
+	private static void write(Document document, File file) throws Exception {
+		Transformer transformer = TransformerFactory.newInstance().newTransformer();
+		transformer.setOutputProperty(OutputKeys.ENCODING, "ISO-8859-1");
+		transformer.transform(new DOMSource(document), new StreamResult(file));
+	}
+
+	/**
+	 * Metrics of one agent in one simulation. Missing values stay at zero.
+	 */
+	static class Metrics {
+
+		long profit = 0;
+		double distance = 0;
+		long tasks = 0;
+		long actions = 0;
+		long planningTime = 0;
+		int plans = 0;
+	}
+}
@@ -0,0 +1,232 @@
+package tools;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.NodeList;
+
+/**
+ * A matrix of simulations, read from an XML file such as:
+ *
+ * <pre>
+ * &lt;sweep name="discount" module="../reactive" threads="4" timeout="30"&gt;
+ *     &lt;configuration import="config/experiment_dummies_france.xml" /&gt;
+ *     &lt;topology import="config/topology/france.xml" /&gt;
+ *     &lt;seed value="3590420242192152424" /&gt;
+ *     &lt;agents names="reactive-rla reactive-greedy reactive-random" /&gt;
+ *     &lt;parameter name="discount-factor" values="0.5 0.95" /&gt;
+ * &lt;/sweep&gt;
+ * </pre>
+ *
+ * Every combination of configuration, topology, seed, agents and parameter
+ * values is one simulation. Topologies and seeds are optional and default to
+ * those of the configuration. Paths inside the module are relative to the
+ * module, the module and logist paths are relative to the sweep file.
+ *
+ * A parameter only multiplies the simulations of the agents lists where it
+ * applies, that is where one of the agents sets it in the agents file of the
+ * configuration: the others would run again with the same settings. A
+ * parameter that applies to no agents list at all is rejected.
+ *
+ */
+public class Sweep {
+
+	public final String name;
+	public final File module;
+	public final File logist;
+	public final int threads;
+
+	/** Seconds after which a simulation is stopped (reactive ones never end on their own) */
+	public final long timeout;
+
+	/** Extra arguments given to every simulation JVM */
+	public final String jvmArgs;
+
+	/** History files of long reactive runs grow huge, they are deleted unless asked otherwise */
+	public final boolean keepHistory;
+
+	public final List<String> configurations = new ArrayList<>();
+	public final List<String> topologies = new ArrayList<>();
+	public final List<String> seeds = new ArrayList<>();
+	public final List<String[]> agents = new ArrayList<>();
+	public final Map<String, String[]> parameters = new LinkedHashMap<>();
+
+	public Sweep(File file) throws Exception {
+
+		Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(file);
+		Element root = document.getDocumentElement();
+		File base = file.getAbsoluteFile().getParentFile();
+
+		this.name = attribute(root, "name", file.getName().replace(".xml", ""));
+		this.module = new File(base, attribute(root, "module", ".")).getCanonicalFile();
+		this.logist = new File(base, attribute(root, "logist", "../logist/logist.jar")).getCanonicalFile();
+		this.threads = Integer.parseInt(attribute(root, "threads",
+				String.valueOf(Math.max(1, Runtime.getRuntime().availableProcessors() / 2))));
+		this.timeout = Long.parseLong(attribute(root, "timeout", "60"));
+		this.jvmArgs = attribute(root, "jvm-args", "");
+		this.keepHistory = Boolean.parseBoolean(attribute(root, "keep-history", "false"));
+
+		for (Element element : children(root, "configuration")) {
+			configurations.add(element.getAttribute("import"));
+		}
+
+		for (Element element : children(root, "topology")) {
+			topologies.add(element.getAttribute("import"));
+		}
+
+		for (Element element : children(root, "seed")) {
+			seeds.add(element.getAttribute("value"));
+		}
+
+		for (Element element : children(root, "agents")) {
+			agents.add(element.getAttribute("names").trim().split("\\s+"));
+		}
+
+		for (Element element : children(root, "parameter")) {
+			parameters.put(element.getAttribute("name"), element.getAttribute("values").trim().split("\\s+"));
+		}
+
+		if (configurations.isEmpty() || agents.isEmpty()) {
+			throw new IllegalArgumentException("A sweep needs at least one configuration and one agents list.");
+		}
+
+		// A null entry stands for "as in the configuration"
+		if (topologies.isEmpty()) {
+			topologies.add(null);
+		}
+
+		if (seeds.isEmpty()) {
+			seeds.add(null);
+		}
+	}
+
+	/**
+	 * Expand the matrix into the list of all simulations.
+	 */
+	public List<SimulationRun> runs(File outputDirectory) throws Exception {
+
+		List<SimulationRun> runs = new ArrayList<>();
+		Set<String> applied = new HashSet<>();
+
+		for (String configuration : configurations) {
+
+			Map<String, Set<String>> settings = settings(configuration);
+
+			for (String topology : topologies) {
+				for (String seed : seeds) {
+					for (String[] names : agents) {
+
+						Set<String> used = new HashSet<>();
+						for (String agent : names) {
+							if (settings.containsKey(agent)) {
+								used.addAll(settings.get(agent));
+							}
+						}
+						applied.addAll(used);
+
+						for (Map<String, String> assignment : assignments(used)) {
+
+							int id = runs.size();
+							File directory = new File(outputDirectory, name + "-" + id);
+
+							runs.add(new SimulationRun(this, id, directory, configuration, topology, seed, names, assignment));
+						}
+					}
+				}
+			}
+		}
+
+		for (String parameter : parameters.keySet()) {
+			if (!applied.contains(parameter)) {
+				throw new IllegalArgumentException("Parameter " + parameter + " is set by none of the agents of sweep " + name + ".");
+			}
+		}
+
+		return runs;
+	}
+
+	/**
+	 * @return all the combinations of the values of the parameters in a set
+	 */
+	private List<Map<String, String>> assignments(Set<String> used) {
+
+		List<Map<String, String>> assignments = new ArrayList<>();
+		assignments.add(new LinkedHashMap<String, String>());
+
+		for (Map.Entry<String, String[]> parameter : parameters.entrySet()) {
+
+			if (!used.contains(parameter.getKey())) {
+				continue;
+			}
+
+			List<Map<String, String>> expanded = new ArrayList<>();
+
+			for (Map<String, String> assignment : assignments) {
+				for (String value : parameter.getValue()) {
+					Map<String, String> copy = new LinkedHashMap<>(assignment);
+					copy.put(parameter.getKey(), value);
+					expanded.add(copy);
+				}
+			}
+			assignments = expanded;
+		}
+
+		return assignments;
+	}
+
+	/**
+	 * @return the settings of every agent of the agents file of a configuration, by agent name
+	 */
+	private Map<String, Set<String>> settings(String configuration) throws Exception {
+
+		File file = new File(module, configuration);
+		Element root = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(file).getDocumentElement();
+		Element agentsImport = (Element) root.getElementsByTagName("agents").item(0);
+		File agentsFile = new File(module, agentsImport.getAttribute("import"));
+
+		Map<String, Set<String>> settings = new HashMap<>();
+
+		for (Element agent : children(DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(agentsFile)
+				.getDocumentElement(), "agent")) {
+
+			Set<String> names = new HashSet<>();
+
+			for (Element set : children(agent, "set")) {
+				NamedNodeMap attributes = set.getAttributes();
+
+				for (int i = 0; i < attributes.getLength(); i++) {
+					names.add(attributes.item(i).getNodeName());
+				}
+			}
+			settings.put(agent.getAttribute("name"), names);
+		}
+
+		return settings;
+	}
+
+	private static String attribute(Element element, String name, String defaultValue) {
+		return element.hasAttribute(name) ? element.getAttribute(name) : defaultValue;
+	}
+
+	static List<Element> children(Element parent, String tag) {
+
+		List<Element> elements = new ArrayList<>();
+		NodeList nodes = parent.getElementsByTagName(tag);
+
+		for (int i = 0; i < nodes.getLength(); i++) {
+			elements.add((Element) nodes.item(i));
+		}
+		return elements;
+	}
+}